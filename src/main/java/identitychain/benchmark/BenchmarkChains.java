@@ -0,0 +1,81 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.mining.MiningBlock;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds chains of easy blocks for the benchmarks to run against.
+ */
+final class BenchmarkChains {
+
+    private BenchmarkChains() {
+
+    }
+
+    static KeyPair generateKeys() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(1024);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Mine blocks at the maximum target onto the chain stored in the given directory.
+     *
+     * @param directory The directory of the BlockChain.
+     * @param keys The keys that each coinbase pays to.
+     * @param blocks The number of blocks to add.
+     * @return The BlockChain with the new blocks.
+     */
+    static BlockChain buildChain(File directory, KeyPair keys, int blocks) {
+        final BlockChain blockChain = BlockChain.getFromDirectory(directory);
+
+        for (int i = 0; i < blocks; i++) {
+            final List<Transaction> transactions = new ArrayList<>();
+            transactions.add(new Coinbase(
+                    blockChain.getSize(),
+                    Collections.singletonList(new CurrencyTransactionOutput(keys.getPublic(), BCConstants.MINING_REWARD)),
+                    i
+            ));
+
+            final MiningBlock block = new MiningBlock(
+                    blockChain.getHeadHash(),
+                    BlockChainInt.MAX_TARGET,
+                    MerkleTreeBuilder.buildMerkleTree(transactions)
+            );
+            block.startMining();
+
+            if (!blockChain.pushBlock(block.toBlock())) {
+                throw new IllegalStateException("Could not push block " + i + ".");
+            }
+        }
+
+        blockChain.saveToFile();
+
+        return blockChain;
+    }
+
+    static File createTempDirectory(String prefix) {
+        final File directory = new File(System.getProperty("java.io.tmpdir"), prefix + System.nanoTime());
+        directory.mkdirs();
+
+        return directory;
+    }
+}
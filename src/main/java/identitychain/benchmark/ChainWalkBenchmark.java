@@ -0,0 +1,56 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.storage.BlockLog;
+
+import java.io.File;
+
+/**
+ * Compares a full walk of the chain when blocks are read through FileChannel reads and through segment mappings.
+ *
+ * Usage: ChainWalkBenchmark [blocks] [walks]
+ */
+public final class ChainWalkBenchmark {
+
+    public static void main(String[] args) {
+        final int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int walks = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final File directory = BenchmarkChains.createTempDirectory("IDCChainWalk");
+        BenchmarkChains.buildChain(directory, BenchmarkChains.generateKeys(), blocks);
+
+        for (BlockLog.ReadMode mode : BlockLog.ReadMode.values()) {
+            BlockLog.getBlockLog(directory).setReadMode(mode);
+
+            // Warm up the JIT and the page cache before measuring.
+            walk(directory);
+
+            final long start = System.nanoTime();
+            long walked = 0;
+            for (int i = 0; i < walks; i++) {
+                walked += walk(directory);
+            }
+            final long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%-8s %10.1f blocks/s %8.3f ms/walk%n",
+                    mode, walked / (elapsed / 1e9), elapsed / 1e6 / walks);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Walk the chain as it is loaded from disk, so that every block is read from the log.
+     */
+    private static long walk(File directory) {
+        final BlockChain blockChain = BlockChain.getFromDirectory(directory);
+        long walked = 0;
+
+        for (Block block : blockChain) {
+            walked++;
+        }
+
+        return walked;
+    }
+}
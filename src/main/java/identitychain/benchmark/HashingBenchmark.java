@@ -0,0 +1,129 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Hashing;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Measures the time and the memory allocated for each hash of a block header and of a merkle node, looking up a new
+ * digest and allocating new buffers for each hash, as the hashing code did, against the per thread digests and
+ * buffers of Hashing.
+ *
+ * The allocation is read from the JVM's count of the bytes allocated by the benchmark thread, and includes the
+ * BlockChainInt made for each hash.
+ *
+ * Usage: HashingBenchmark [hashes] [rounds]
+ */
+public final class HashingBenchmark {
+
+    private interface Hash {
+        BlockChainInt hash(int i) throws NoSuchAlgorithmException;
+    }
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final Random random = new Random(1);
+        final BlockChainInt[] hashes = new BlockChainInt[256];
+
+        for (int i = 0; i < hashes.length; i++) {
+            final byte[] value = new byte[BlockChainInt.HASH_BYTES];
+            random.nextBytes(value);
+            hashes[i] = BlockChainInt.fromByteArray(value);
+        }
+
+        final Hash lookupHeader = i -> {
+            final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+            writeHeader(header, hashes, i);
+            header.flip();
+
+            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+            hash.update(header);
+
+            return BlockChainInt.fromByteArray(hash.digest());
+        };
+
+        final Hash pooledHeader = i -> {
+            final ByteBuffer header = Hashing.getScratch();
+            writeHeader(header, hashes, i);
+            header.flip();
+
+            return Block.hashHeader(header);
+        };
+
+        final Hash lookupNode = i -> {
+            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+            hash.update(hashes[i & 0xFF].toByteArray());
+            hash.update(hashes[(i + 1) & 0xFF].toByteArray());
+
+            return BlockChainInt.fromByteArray(hash.digest());
+        };
+
+        final Hash pooledNode = i -> {
+            final MessageDigest hash = Hashing.getDigest();
+            Hashing.update(hash, hashes[i & 0xFF]);
+            Hashing.update(hash, hashes[(i + 1) & 0xFF]);
+
+            return Hashing.digest(hash);
+        };
+
+        // Warm up the JIT before measuring.
+        for (Hash hash : new Hash[]{lookupHeader, pooledHeader, lookupNode, pooledNode}) {
+            run(hash, count);
+        }
+
+        report("header, new digest", lookupHeader, count, rounds);
+        report("header, Hashing", pooledHeader, count, rounds);
+        report("merkle node, new digest", lookupNode, count, rounds);
+        report("merkle node, Hashing", pooledNode, count, rounds);
+
+        System.exit(0);
+    }
+
+    private static void writeHeader(ByteBuffer header, BlockChainInt[] hashes, int i) {
+        Block.writeHeader(header, hashes[i & 0xFF], BlockChainInt.MAX_TARGET, i, 0, hashes[(i + 7) & 0xFF]);
+    }
+
+    private static void report(String name, Hash hash, int count, int rounds) throws NoSuchAlgorithmException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        long elapsed = 0;
+        long allocated = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            final long bytes = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+
+            run(hash, count);
+
+            elapsed += System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+        }
+
+        final double hashes = (double) count * rounds;
+
+        System.out.printf("%-24s %8.1f ns/hash %8.1f bytes/hash %8.1f MB/s allocated%n",
+                name, elapsed / hashes, allocated / hashes, allocated / 1e6 / (elapsed / 1e9));
+    }
+
+    private static void run(Hash hash, int count) throws NoSuchAlgorithmException {
+        BlockChainInt last = BlockChainInt.ZERO;
+
+        for (int i = 0; i < count; i++) {
+            last = hash.hash(i);
+        }
+
+        if (last == null) {
+            throw new IllegalStateException();
+        }
+    }
+}
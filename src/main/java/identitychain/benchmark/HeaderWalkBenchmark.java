@@ -0,0 +1,58 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.storage.HeaderStore;
+
+import java.io.File;
+
+/**
+ * Compares walks of the chain that only need headers against a walk that loads every block.
+ *
+ * Usage: HeaderWalkBenchmark [blocks] [walks]
+ */
+public final class HeaderWalkBenchmark {
+
+    public static void main(String[] args) {
+        final int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        final int walks = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        final File directory = BenchmarkChains.createTempDirectory("IDCHeaderWalk");
+        BenchmarkChains.buildChain(directory, BenchmarkChains.generateKeys(), blocks);
+
+        final BlockChain blockChain = BlockChain.getFromDirectory(directory);
+        HeaderStore.getHeaderStore(directory).preload();
+
+        measure("trace", walks, () -> blockChain.traceBlockchain().size());
+        measure("difficulty", walks, () -> (long) blockChain.getTotalDifficulty());
+        measure("blocks", walks, () -> {
+            long walked = 0;
+            for (Block block : blockChain) {
+                walked++;
+            }
+            return walked;
+        });
+
+        System.exit(0);
+    }
+
+    private interface Walk {
+        long run();
+    }
+
+    private static void measure(String name, int walks, Walk walk) {
+
+        // Warm up the JIT before measuring.
+        walk.run();
+
+        final long start = System.nanoTime();
+        long walked = 0;
+        for (int i = 0; i < walks; i++) {
+            walked += walk.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-10s %8.1f ns/block %8.3f ms/walk%n",
+                name, (double) elapsed / walked, elapsed / 1e6 / walks);
+    }
+}
@@ -0,0 +1,139 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.merkle.MerkleTree;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.mining.MiningBlock;
+import identitychain.mining.MiningCoordinator;
+
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the total hash rate of the mining threads for an increasing number of threads, handing out nonce ranges
+ * over a shared template the same way as BlockChainMiner.
+ *
+ * The threads mine at a target of zero, which no hash is below, for a fixed time. The hash rate should grow with the
+ * number of threads up to the number of processors, and each round should build only one template.
+ *
+ * Usage: MinerScalingBenchmark [seconds] [threads...]
+ */
+public final class MinerScalingBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        final int[] threadCounts = args.length > 1 ? new int[args.length - 1] : new int[]{1, 2, 4, 8, 16};
+
+        for (int i = 1; i < args.length; i++) {
+            threadCounts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        final KeyPair keys = BenchmarkChains.generateKeys();
+        final long duration = (long) (seconds * 1e9);
+
+        System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+
+        // Warm up the JIT before measuring.
+        mine(keys, 1, duration);
+
+        double single = 0;
+
+        for (int threads : threadCounts) {
+            final double[] result = mine(keys, threads, duration);
+
+            if (single == 0) {
+                single = result[0] / threads;
+            }
+
+            System.out.printf("%4d threads %12.0f hashes/s %6.2fx of one thread, %d templates%n",
+                    threads, result[0], result[0] / single, (int) result[1]);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * @return The total hash rate in hashes per second, and the number of templates built.
+     */
+    private static double[] mine(KeyPair keys, int threads, long duration) throws InterruptedException {
+        final MiningCoordinator coordinator = new MiningCoordinator();
+        final Set<MiningBlock> activeMiners = ConcurrentHashMap.newKeySet();
+        final AtomicLong hashes = new AtomicLong();
+        final AtomicInteger templates = new AtomicInteger();
+
+        coordinator.reset(extraNonce -> {
+            templates.incrementAndGet();
+            return buildTemplate(keys, extraNonce);
+        });
+
+        final List<Thread> workers = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(() -> {
+                while (!coordinator.isFinished()) {
+                    final MiningCoordinator.Range range = coordinator.getNextRange();
+
+                    if (range == null) {
+                        break;
+                    }
+
+                    final MiningBlock block = new MiningBlock(BlockChainInt.ZERO, BlockChainInt.ZERO,
+                            range.getMerkleRoot());
+
+                    activeMiners.add(block);
+
+                    if (coordinator.isFinished()) {
+                        block.stop();
+                    }
+
+                    block.startMining(range.getFirst(), range.getLast());
+                    activeMiners.remove(block);
+
+                    hashes.addAndGet(block.toBlock().getHeader().getNonce() - range.getFirst() + 1);
+                }
+            }));
+        }
+
+        final long start = System.nanoTime();
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+
+        Thread.sleep(duration / 1000000);
+
+        coordinator.setFinished();
+        for (MiningBlock block : activeMiners) {
+            block.stop();
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        final long elapsed = System.nanoTime() - start;
+
+        return new double[]{hashes.get() / (elapsed / 1e9), templates.get()};
+    }
+
+    private static MerkleTree buildTemplate(KeyPair keys, int extraNonce) {
+        final List<Transaction> transactions = new ArrayList<>();
+        transactions.add(new Coinbase(
+                0,
+                Collections.singletonList(new CurrencyTransactionOutput(keys.getPublic(), BCConstants.MINING_REWARD)),
+                extraNonce
+        ));
+
+        return MerkleTreeBuilder.buildMerkleTree(transactions);
+    }
+}
@@ -0,0 +1,110 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.merkle.MerkleTree;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.mining.MiningBlock;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the hash rate of one mining thread, hashing the whole header for every nonce as the mining loop used to,
+ * against MiningBlock, which hashes the part of the header before the nonce once.
+ *
+ * Both mine at a target of zero, which no hash is below, for a fixed time.
+ *
+ * Usage: MiningBenchmark [seconds] [rounds]
+ */
+public final class MiningBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final long duration = (long) (seconds * 1e9);
+
+        final MerkleTree merkleRoot = buildMerkleRoot(BenchmarkChains.generateKeys());
+
+        // Warm up the JIT before measuring.
+        hashWholeHeader(merkleRoot, duration);
+        mine(merkleRoot, duration);
+
+        double wholeHeader = 0;
+        double midstate = 0;
+
+        for (int round = 0; round < rounds; round++) {
+            wholeHeader += hashWholeHeader(merkleRoot, duration);
+            midstate += mine(merkleRoot, duration);
+        }
+
+        System.out.printf("whole header %12.0f hashes/s%n", wholeHeader / rounds);
+        System.out.printf("midstate     %12.0f hashes/s (%.1fx)%n", midstate / rounds, midstate / wholeHeader);
+
+        System.exit(0);
+    }
+
+    /**
+     * @return The hash rate of hashing the whole header for every nonce, in hashes per second.
+     */
+    private static double hashWholeHeader(MerkleTree merkleRoot, long duration) throws NoSuchAlgorithmException {
+        final long start = System.nanoTime();
+        long hashes = 0;
+
+        for (long nonce = Long.MIN_VALUE; System.nanoTime() - start < duration; nonce++) {
+            final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+            Block.writeHeader(header, BlockChainInt.ZERO, BlockChainInt.ZERO, nonce, 0, merkleRoot.getHash());
+            header.flip();
+
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(header);
+
+            if (BlockChainInt.fromByteArray(digest.digest()).compareTo(BlockChainInt.ZERO) < 0) {
+                break;
+            }
+
+            hashes++;
+        }
+
+        return hashes / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @return The hash rate of MiningBlock, in hashes per second.
+     */
+    private static double mine(MerkleTree merkleRoot, long duration) throws InterruptedException {
+        final MiningBlock block = new MiningBlock(BlockChainInt.ZERO, BlockChainInt.ZERO, merkleRoot);
+        final Thread thread = new Thread(block::startMining);
+
+        final long start = System.nanoTime();
+        thread.start();
+        Thread.sleep(duration / 1000000);
+        block.stop();
+        thread.join();
+        final long elapsed = System.nanoTime() - start;
+
+        final long hashes = block.toBlock().getHeader().getNonce() - Long.MIN_VALUE + 1;
+
+        return hashes / (elapsed / 1e9);
+    }
+
+    private static MerkleTree buildMerkleRoot(KeyPair keys) {
+        final List<Transaction> transactions = new ArrayList<>();
+        transactions.add(new Coinbase(
+                0,
+                Collections.singletonList(new CurrencyTransactionOutput(keys.getPublic(), BCConstants.MINING_REWARD)),
+                0
+        ));
+
+        return MerkleTreeBuilder.buildMerkleTree(transactions);
+    }
+}
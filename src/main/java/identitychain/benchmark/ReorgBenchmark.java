@@ -0,0 +1,106 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.BlockChainManager;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.mining.MiningBlock;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures replacing the BlockChain with a fork of a fixed depth, for chains of increasing length.
+ *
+ * Each round forks the chain a few blocks before its head, extends the fork one block past the head, and times
+ * BlockChainManager.replaceBlockChain(). The time should stay flat as the chain grows, since only the blocks past the
+ * common ancestor are checked, disconnected and connected.
+ *
+ * Usage: ReorgBenchmark [depth] [rounds] [lengths...]
+ */
+public final class ReorgBenchmark {
+
+    public static void main(String[] args) {
+        final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int[] lengths = {250, 1000, 4000};
+
+        for (int i = 2; i < args.length && i - 2 < lengths.length; i++) {
+            lengths[i - 2] = Integer.parseInt(args[i]);
+        }
+
+        final KeyPair keys = BenchmarkChains.generateKeys();
+
+        for (int length : lengths) {
+            final File directory = BenchmarkChains.createTempDirectory("IDCReorg");
+            BenchmarkChains.buildChain(directory, keys, length);
+
+            final BlockChainManager manager = BlockChainManager.getBlockChainManager(directory);
+
+            // Warm up the JIT before measuring.
+            reorganize(manager, keys, depth);
+
+            long elapsed = 0;
+            for (int i = 0; i < rounds; i++) {
+                elapsed += reorganize(manager, keys, depth);
+            }
+
+            System.out.printf("%8d blocks %8.3f ms/reorg of depth %d%n",
+                    manager.getBlockChain().getSize(), elapsed / 1e6 / rounds, depth);
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Replace the manager's BlockChain with a fork that leaves the given number of blocks behind.
+     *
+     * @return The time taken by replaceBlockChain(), in nanoseconds.
+     */
+    private static long reorganize(BlockChainManager manager, KeyPair keys, int depth) {
+        final BlockChain blockChain = manager.getBlockChain();
+        final BlockChainInt forkHash = blockChain.getHeader(blockChain.getSize() - 1 - depth).getHash();
+        final BlockChain fork = blockChain.forkBlockChain(forkHash);
+
+        for (int i = 0; i <= depth; i++) {
+            push(fork, keys);
+        }
+
+        final long start = System.nanoTime();
+        final boolean replaced = manager.replaceBlockChain(fork);
+        final long elapsed = System.nanoTime() - start;
+
+        if (!replaced) {
+            throw new IllegalStateException("The fork did not replace the BlockChain.");
+        }
+
+        return elapsed;
+    }
+
+    private static void push(BlockChain blockChain, KeyPair keys) {
+        final List<Transaction> transactions = new ArrayList<>();
+        transactions.add(new Coinbase(
+                blockChain.getSize(),
+                Collections.singletonList(new CurrencyTransactionOutput(keys.getPublic(), BCConstants.MINING_REWARD)),
+                (int) System.nanoTime()
+        ));
+
+        final MiningBlock block = new MiningBlock(
+                blockChain.getHeadHash(),
+                BlockChainInt.MAX_TARGET,
+                MerkleTreeBuilder.buildMerkleTree(transactions)
+        );
+        block.startMining();
+
+        if (!blockChain.pushBlock(block.toBlock())) {
+            throw new IllegalStateException("Could not push a block onto the fork.");
+        }
+    }
+}
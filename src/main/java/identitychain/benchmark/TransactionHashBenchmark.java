@@ -0,0 +1,106 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.CurrencyTransaction;
+import identitychain.blockchain.transaction.CurrencyTransactionInput;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.transaction.TransactionCodec;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the transaction hash path: building a merkle tree and checking for duplicates, as the miner does for each
+ * block it assembles.
+ *
+ * Each round decodes the transactions again, so the first pass over them computes every hash, and the passes after
+ * it read the hashes kept by the transactions.
+ *
+ * Usage: TransactionHashBenchmark [transactions] [rounds] [passes]
+ */
+public final class TransactionHashBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        final int passes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        final List<byte[]> encoded = generateTransactions(count);
+
+        // Warm up the JIT before measuring.
+        run(encoded, rounds, passes);
+
+        final long[] elapsed = run(encoded, rounds, passes);
+
+        System.out.printf("first pass  %10.1f ns/transaction%n", elapsed[0] / (double) (rounds * count));
+        System.out.printf("later passes %9.1f ns/transaction%n",
+                elapsed[1] / (double) (rounds * count * Math.max(1, passes - 1)));
+
+        System.exit(0);
+    }
+
+    /**
+     * @return The time spent on the first pass of each round, and on the other passes, in nanoseconds.
+     */
+    private static long[] run(List<byte[]> encoded, int rounds, int passes) throws IOException {
+        final long[] elapsed = new long[2];
+
+        for (int round = 0; round < rounds; round++) {
+            final List<Transaction> transactions = new ArrayList<>(encoded.size());
+
+            for (byte[] bytes : encoded) {
+                transactions.add(TransactionCodec.read(ByteBuffer.wrap(bytes)));
+            }
+
+            for (int pass = 0; pass < passes; pass++) {
+                final long start = System.nanoTime();
+
+                MerkleTreeBuilder.buildMerkleTree(transactions);
+
+                final Set<BlockChainInt> seen = new HashSet<>();
+                for (Transaction transaction : transactions) {
+                    seen.add(transaction.getHash());
+                }
+
+                elapsed[pass == 0 ? 0 : 1] += System.nanoTime() - start;
+            }
+        }
+
+        return elapsed;
+    }
+
+    private static List<byte[]> generateTransactions(int count) throws IOException {
+        final KeyPair sender = BenchmarkChains.generateKeys();
+        final KeyPair receiver = BenchmarkChains.generateKeys();
+        final Random random = new Random(1);
+        final List<byte[]> encoded = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            final List<CurrencyTransactionOutput> outputs = new ArrayList<>();
+            outputs.add(new CurrencyTransactionOutput(receiver.getPublic(), 1 + random.nextInt(100)));
+            outputs.add(new CurrencyTransactionOutput(sender.getPublic(), 1 + random.nextInt(100)));
+
+            // Only hashing is measured, so the input signs an arbitrary hash rather than the outputs.
+            final CurrencyTransactionInput input = CurrencyTransactionInput.generateInput(
+                    sender,
+                    outputs.get(0).getAmount() + outputs.get(1).getAmount(),
+                    BlockChainInt.fromString(Integer.toString(i), 10)
+            );
+
+            encoded.add(TransactionCodec.encode(
+                    new CurrencyTransaction(random.nextLong(), Collections.singletonList(input), outputs)
+            ));
+        }
+
+        return encoded;
+    }
+}
@@ -0,0 +1,41 @@
+package identitychain.benchmark;
+
+import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.ChainVerifier;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares a full verification of the chain on one thread and on a ForkJoinPool with a thread per processor.
+ *
+ * Usage: VerifyBenchmark [blocks] [runs]
+ */
+public final class VerifyBenchmark {
+
+    public static void main(String[] args) {
+        final int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final File directory = BenchmarkChains.createTempDirectory("IDCVerify");
+        final BlockChain blockChain = BenchmarkChains.buildChain(directory, BenchmarkChains.generateKeys(), blocks);
+
+        final int[] parallelisms = {1, Runtime.getRuntime().availableProcessors()};
+
+        for (int parallelism : parallelisms) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+            final ChainVerifier verifier = new ChainVerifier(pool);
+
+            // Warm up the JIT and the page cache before measuring.
+            verifier.verify(blockChain);
+
+            for (int i = 0; i < runs; i++) {
+                System.out.printf("%3d threads  %s%n", parallelism, verifier.verify(blockChain));
+            }
+
+            pool.shutdown();
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,237 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The balance of every wallet after the blocks of one BlockChain, updated as blocks are pushed and disconnected.
+ *
+ * The ledger of the primary BlockChain is checkpointed to IDCBalances.dat.
+ *
+ * The ledger of a fork is an overlay on the ledger of the BlockChain it forked, and only holds the balances it has
+ * changed, with zero for a wallet it has emptied. Every other balance is read from the parent, which copies a balance
+ * into its overlays before changing it. A ledger and its overlays share one lock.
+ */
+final class BalanceLedger implements ChainState<BalanceLedger> {
+    private static final byte VERSION = 1;
+
+    private final BalanceLedger parent;
+    private final Object lock;
+    private final Map<PublicKey, Long> balances;
+    private final List<WeakReference<BalanceLedger>> overlays = new ArrayList<>();
+    private long size;
+    private BlockChainInt head;
+
+    BalanceLedger() {
+        this(null, new HashMap<>(), 0, BlockChainInt.ZERO);
+    }
+
+    private BalanceLedger(BalanceLedger parent, Map<PublicKey, Long> balances, long size, BlockChainInt head) {
+        this.parent = parent;
+        this.lock = parent != null ? parent.lock : new Object();
+        this.balances = balances;
+        this.size = size;
+        this.head = head;
+    }
+
+    @Override
+    public BalanceLedger overlay() {
+        synchronized (lock) {
+            final BalanceLedger overlay = new BalanceLedger(this, new HashMap<>(), size, head);
+            overlays.add(new WeakReference<>(overlay));
+
+            return overlay;
+        }
+    }
+
+    long getBalance(PublicKey wallet) {
+        synchronized (lock) {
+            return find(wallet);
+        }
+    }
+
+    @Override
+    public long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    @Override
+    public BlockChainInt getHead() {
+        synchronized (lock) {
+            return head;
+        }
+    }
+
+    @Override
+    public void apply(Block block) {
+        synchronized (lock) {
+            for (Map.Entry<PublicKey, Long> entry : block.getEffects().entrySet()) {
+                add(entry.getKey(), entry.getValue());
+            }
+
+            size++;
+            head = block.getHash();
+        }
+    }
+
+    @Override
+    public void revert(UndoRecord undo) {
+        synchronized (lock) {
+            for (Map.Entry<PublicKey, Long> entry : undo.getEffects().entrySet()) {
+                add(entry.getKey(), -entry.getValue());
+            }
+
+            size--;
+            head = size > 0 ? undo.getPreviousBlockHash() : BlockChainInt.ZERO;
+        }
+    }
+
+    @Override
+    public void write(File file) {
+        final Map<PublicKey, Long> balances = new HashMap<>();
+        final long size;
+        final BlockChainInt head;
+
+        synchronized (lock) {
+            collect(balances);
+            size = this.size;
+            head = this.head;
+        }
+
+        final File temp = new File(file.getAbsolutePath() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(fileOut)) {
+
+            out.writeByte(VERSION);
+            Codec.writeHash(out, head);
+            Codec.writeVarLong(out, size);
+            Codec.writeVarLong(out, balances.size());
+
+            for (Map.Entry<PublicKey, Long> entry : balances.entrySet()) {
+                Codec.writePublicKey(out, entry.getKey());
+                Codec.writeSignedVarLong(out, entry.getValue());
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(
+                    temp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read balances written by write().
+     *
+     * @return The ledger, or null if the file does not exist or is not well formed.
+     */
+    static BalanceLedger read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            final byte version = Codec.readByte(in);
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported balance format version " + version);
+            }
+
+            final BlockChainInt head = Codec.readHash(in);
+            final long size = Codec.readVarLong(in);
+            final int count = Codec.readLength(in);
+            final Map<PublicKey, Long> balances = new HashMap<>();
+
+            for (int i = 0; i < count; i++) {
+                balances.put(Codec.readPublicKey(in), Codec.readSignedVarLong(in));
+            }
+
+            return new BalanceLedger(null, balances, size, head);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private long find(PublicKey wallet) {
+        final Long balance = balances.get(wallet);
+
+        if (balance != null) {
+            return balance;
+        }
+
+        return parent != null ? parent.find(wallet) : 0L;
+    }
+
+    private void add(PublicKey wallet, long amount) {
+        final long balance = find(wallet) + amount;
+
+        // Each overlay that still reads this balance from here keeps the balance as it was.
+        final Iterator<WeakReference<BalanceLedger>> iterator = overlays.iterator();
+
+        while (iterator.hasNext()) {
+            final BalanceLedger overlay = iterator.next().get();
+
+            if (overlay == null) {
+                iterator.remove();
+            } else if (!overlay.balances.containsKey(wallet)) {
+                overlay.balances.put(wallet, find(wallet));
+            }
+        }
+
+        // Only an overlay needs a zero balance, to hide the parent's.
+        if (balance == 0 && parent == null) {
+            balances.remove(wallet);
+        } else {
+            balances.put(wallet, balance);
+        }
+    }
+
+    /**
+     * Put every balance that is not zero into the map, with this ledger's own balances replacing its parent's.
+     */
+    private void collect(Map<PublicKey, Long> into) {
+        if (parent != null) {
+            parent.collect(into);
+        }
+
+        balances.forEach((wallet, balance) -> {
+            if (balance == 0) {
+                into.remove(wallet);
+            } else {
+                into.put(wallet, balance);
+            }
+        });
+    }
+}
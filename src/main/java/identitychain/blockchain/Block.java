@@ -6,11 +6,15 @@ import identitychain.blockchain.transaction.CurrencyTransaction;
 import identitychain.blockchain.transaction.Transaction;
 import identitychain.blockchain.utilities.BCConstants;
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Hashing;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.HashMap;
 import java.util.List;
@@ -19,6 +23,23 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 public final class Block implements Serializable {
+
+    /**
+     * The header is the previous hash, the target, the time, the hash of the merkle root and the nonce.
+     *
+     * The nonce is last so that a miner can hash everything before it once, and only finish the hash for each nonce.
+     */
+    public static final int HEADER_SIZE = BlockChainInt.HASH_BYTES
+            + BlockChainInt.BYTES
+            + Integer.BYTES
+            + BlockChainInt.HASH_BYTES
+            + Long.BYTES;
+
+    /**
+     * The position of the nonce in the header, which is also the length of the part of the header before it.
+     */
+    public static final int NONCE_OFFSET = HEADER_SIZE - Long.BYTES;
+
     private final BlockChainInt hash;
     private final BlockChainInt previousBlockHash;
     private final BlockChainInt target;
@@ -111,6 +132,10 @@ public final class Block implements Serializable {
         return time;
     }
 
+    public BlockHeader getHeader() {
+        return new BlockHeader(hash, previousBlockHash, target, nonce, time, merkleRoot.getHash());
+    }
+
     public List<Transaction> getTransactions() {
         return merkleRoot.getTransactions();
     }
@@ -131,21 +156,82 @@ public final class Block implements Serializable {
         return block.isValid() && block.hash.equals(hash);
     }
 
+    /**
+     * Write the header of a block, which is what the hash of the block is computed from.
+     *
+     * @param buffer The buffer to write to, with at least HEADER_SIZE bytes remaining.
+     */
+    public static void writeHeader(ByteBuffer buffer,
+                                   BlockChainInt previousBlockHash,
+                                   BlockChainInt target,
+                                   long nonce,
+                                   int time,
+                                   BlockChainInt merkleRootHash) {
+
+        previousBlockHash.write(buffer, BlockChainInt.HASH_BYTES);
+        target.write(buffer, BlockChainInt.BYTES);
+        buffer.putInt(time);
+        merkleRootHash.write(buffer, BlockChainInt.HASH_BYTES);
+        buffer.putLong(nonce);
+    }
+
+    /**
+     * Compute the hash of the header between the position and the limit of the buffer.
+     *
+     * @param header The header written by writeHeader().
+     * @return The hash of the block.
+     */
+    public static BlockChainInt hashHeader(ByteBuffer header) {
+        final MessageDigest hash = Hashing.getDigest();
+
+        hash.update(header);
+
+        return Hashing.digest(hash);
+    }
+
+    void writeHeader(ByteBuffer buffer) {
+        writeHeader(buffer, previousBlockHash, target, nonce, time, merkleRoot.getHash());
+    }
+
     private BlockChainInt computeHash() {
+        final ByteBuffer header = Hashing.getScratch();
+
+        writeHeader(header);
+        header.flip();
+
+        return hashHeader(header);
+    }
+
+    /**
+     * Blocks are sent in the binary format of BlockCodec rather than as serialized objects.
+     */
+    private Object writeReplace() throws ObjectStreamException {
         try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+            return new SerializedForm(BlockCodec.encode(this));
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
 
-            hash.update(previousBlockHash.toByteArray());
-            hash.update(target.toByteArray());
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(nonce));
-            hash.update(ByteBuffer.allocate(Integer.BYTES).putInt(time));
-            hash.update(merkleRoot.getHash().toByteArray());
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Block must be read through its serialized form.");
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        private final byte[] bytes;
+
+        private SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
         }
 
-        return BlockChainInt.ZERO;
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return BlockCodec.decode(ByteBuffer.wrap(bytes));
+            } catch (IOException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
     }
 }
@@ -1,29 +1,66 @@
 package identitychain.blockchain;
 
+import identitychain.blockchain.storage.AddressTable;
+import identitychain.blockchain.storage.BlockIndex;
+import identitychain.blockchain.storage.BlockLog;
+import identitychain.blockchain.storage.BlockLruCache;
+import identitychain.blockchain.storage.ForkTable;
+import identitychain.blockchain.storage.HeaderStore;
+import identitychain.blockchain.storage.SlotTable;
+import identitychain.blockchain.storage.TransactionIndex;
+import identitychain.blockchain.storage.UndoStore;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.storage.WriteAheadLog;
 import identitychain.blockchain.utilities.BlockChainInt;
 
 import java.io.*;
-import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
-public class BlockCache {
-    private transient final Block[] cache = new Block[5000000];
+public class BlockCache implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient AddressTable addresses;
+    private transient ForkTable fork;
+    private transient List<WeakReference<ForkTable>> forks;
+    private transient long lastLogged = 0;
 
     private final File directory;
-    private final Map<BlockChainInt, Long> blockSequenceNumbers = new HashMap<>();
     private final long uid;
     private boolean primary = true;
 
+    /**
+     * @param directory The directory the blocks are stored in.
+     * @param uid The uid of the cache's BlockChain, which names its address table.
+     */
     public BlockCache(File directory, long uid) {
         this.directory = directory;
         this.uid = uid;
     }
 
-    public BlockCache(BlockCache cache, long uid) {
+    /**
+     * Create the cache for a fork of the given cache's BlockChain.
+     *
+     * The fork reads the blocks it shares with the forked BlockChain through that BlockChain's table, and only keeps
+     * the blocks added after the fork point, in memory. The forked cache has the fork copy any shared height before
+     * changing it.
+     *
+     * @param cache The cache of the BlockChain being forked.
+     * @param uid The uid of the new BlockChain.
+     * @param size The number of blocks the new BlockChain shares with the forked one.
+     */
+    public BlockCache(BlockCache cache, long uid, long size) {
         this(cache.directory, uid);
-        blockSequenceNumbers.putAll(cache.blockSequenceNumbers);
         primary = false;
+
+        final SlotTable table = cache.getTable();
+
+        if (table != null) {
+            fork = new ForkTable(table, size);
+            cache.addFork(fork);
+        }
     }
 
 
@@ -43,25 +80,17 @@ public class BlockCache {
      * Gets the block with the given hash.
      *
      * @param hash The hash of the block to load.
-     * @param cacheBlock If the block should replace the current cached value in the event of a collision.
+     * @param cacheBlock If the block should be added to the shared cache when it is not already cached.
      * @return The Block with the given hash.
      */
     public Block getBlock(BlockChainInt hash, boolean cacheBlock) {
+        final long seqNum = getSequenceNumber(hash);
 
-        final int cacheIndex = hash.intValue() % cache.length;
-        if (cache[cacheIndex] != null) {
-            if (!cache[cacheIndex].getHash().equals(hash)) {
-                if (cacheBlock) {
-                    if (!cacheBlockFromFile(hash)) {
-                        return null;
-                    }
-                } else {
-                    return loadBlockFromFile(hash);
-                }
-            }
+        if (seqNum < 0) {
+            return null;
         }
 
-        return cache[cacheIndex];
+        return getBlock(seqNum, cacheBlock);
     }
 
     public Block getBlock(long seqNum) {
@@ -69,31 +98,206 @@ public class BlockCache {
     }
 
     public Block getBlock(long seqNum, boolean cacheBlock) {
-        final Block block = loadBlockFromFile(seqNum);
+        final SlotTable table = getTable();
+
+        if (table == null) {
+            return null;
+        }
+
+        return getBlockInSlot(table.get(seqNum), cacheBlock);
+    }
+
+    /**
+     * Gets a block stored in this cache's directory, whether or not it is part of this cache's BlockChain.
+     *
+     * @param hash The hash of the block to load.
+     * @return The Block, or null if it was never stored.
+     */
+    public Block getStoredBlock(BlockChainInt hash) {
+        final BlockIndex index = BlockIndex.getBlockIndex(directory);
+        final BlockIndex.Entry entry = index != null ? index.get(hash) : null;
+
+        if (entry == null) {
+            return null;
+        }
+
+        return getBlockInSlot(entry.getSlot(), true);
+    }
+
+    private Block getBlockInSlot(long slot, boolean cacheBlock) {
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+        if (headers == null) {
+            return null;
+        }
+
+        final long address = headers.getBodyAddress(slot);
+
+        if (address < 0) {
+            return null;
+        }
+
+        final BlockLruCache cache = getLruCache();
+        Block block = cache.get(address);
+
+        if (block == null) {
+            block = loadBlock(address);
 
-        if (cacheBlock && block != null) {
-            cache[block.getHash().intValue() % cache.length] = block;
+            if (cacheBlock && block != null) {
+                cache.put(address, block);
+            }
         }
 
         return block;
     }
 
+    /**
+     * Get the header of the block at the given position, without loading its transactions.
+     *
+     * @param seqNum The position of the block in this cache's BlockChain.
+     * @return The header, or null if there is no block at this position.
+     */
+    public BlockHeader getHeader(long seqNum) {
+        final SlotTable table = getTable();
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+        if (table == null || headers == null) {
+            return null;
+        }
+
+        return headers.get(table.get(seqNum));
+    }
+
+    public BlockHeader getHeader(BlockChainInt hash) {
+        final long seqNum = getSequenceNumber(hash);
+
+        if (seqNum < 0) {
+            return null;
+        }
+
+        return getHeader(seqNum);
+    }
+
+    /**
+     * Get the hash of the block at the given position, reading only its header record.
+     */
+    public BlockChainInt getHash(long seqNum) {
+        final SlotTable table = getTable();
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+        if (table == null || headers == null) {
+            return null;
+        }
+
+        return headers.getHash(table.get(seqNum));
+    }
+
+    /**
+     * Get the sum of the difficulties of the first blocks of this cache's BlockChain, reading only header records.
+     *
+     * @param size The number of blocks to include.
+     * @return The total difficulty.
+     */
+    public double getTotalDifficulty(long size) {
+        final SlotTable table = getTable();
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+        if (table == null || headers == null) {
+            return 0.0;
+        }
+
+        double difficulty = 0.0;
+
+        for (long seqNum = 0; seqNum < size; seqNum++) {
+            difficulty += headers.getDifficulty(table.get(seqNum));
+        }
+
+        return difficulty;
+    }
+
+    /**
+     * Get the position of the block in this cache's BlockChain.
+     *
+     * @param hash The hash of the block.
+     * @return The sequence number of the block, or -1 if it is not part of this BlockChain.
+     */
+    public long getSequenceNumber(BlockChainInt hash) {
+        final BlockIndex index = BlockIndex.getBlockIndex(directory);
+        final SlotTable table = getTable();
+
+        if (index == null || table == null) {
+            return -1;
+        }
+
+        final BlockIndex.Entry entry = index.get(hash);
+
+        if (entry == null || table.get(entry.getHeight()) != entry.getSlot()) {
+            return -1;
+        }
+
+        return entry.getHeight();
+    }
+
+    /**
+     * Find the block of this cache's BlockChain that includes a transaction.
+     *
+     * @param hash The hash of the transaction.
+     * @return The height of the block and the position of the transaction in it, or null if no block of this
+     *         BlockChain includes the transaction.
+     */
+    public TransactionIndex.Entry findTransaction(BlockChainInt hash) {
+        final TransactionIndex index = TransactionIndex.getTransactionIndex(directory);
+        final SlotTable table = getTable();
+
+        if (index == null || table == null) {
+            return null;
+        }
+
+        for (TransactionIndex.Entry entry : index.get(hash)) {
+            if (table.get(entry.getHeight()) == entry.getBlockSlot()) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
     public void storeBlock(Block block, long seqNum) {
+        storeBlock(block, seqNum, null);
+    }
+
+    /**
+     * Add the block to this cache's BlockChain, storing it with the given undo record if it was not stored before.
+     *
+     * @param undo The undo record of the block, or null to build it from the block.
+     */
+    void storeBlock(Block block, long seqNum, UndoRecord undo) {
         if (!block.isValid()) {
             return;
         }
 
-        final int cacheIndex = block.getHash().intValue() % cache.length;
+        final BlockIndex index = BlockIndex.getBlockIndex(directory);
+        final SlotTable table = getTable();
 
-        if (cache[cacheIndex] != null) {
-            if (cache[cacheIndex].equals(block)) {
-                return;
-            }
+        if (index == null || table == null) {
+            return;
         }
 
-        blockSequenceNumbers.put(block.getHash(), seqNum);
+        final BlockIndex.Entry entry = index.get(block.getHash());
 
-        updateBlock(block);
+        try {
+            final long slot = entry != null ? entry.getSlot() : saveBlock(block, seqNum, undo);
+
+            detachForks(seqNum);
+            table.set(seqNum, slot);
+            getLruCache().put(HeaderStore.getHeaderStore(directory).getBodyAddress(slot), block);
+
+            if (primary) {
+                log(WriteAheadLog.APPEND, seqNum, slot);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void updateBlock(Block block) {
@@ -101,23 +305,43 @@ public class BlockCache {
             return;
         }
 
-        saveBlockToFile(block);
+        final long seqNum = getSequenceNumber(block.getHash());
+
+        if (seqNum < 0) {
+            return;
+        }
+
+        try {
+            final long slot = saveBlock(block, seqNum, null);
+
+            detachForks(seqNum);
+            getTable().set(seqNum, slot);
+            getLruCache().put(HeaderStore.getHeaderStore(directory).getBodyAddress(slot), block);
 
-        cache[block.getHash().intValue() % cache.length] = block;
+            if (primary) {
+                log(WriteAheadLog.APPEND, seqNum, slot);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Remove this block from the sequence number map, and the cache. Does not delete the file.
+     * Remove this block, and every block after it, from this cache's BlockChain.
+     *
+     * The block stays in the log and the shared cache, since other BlockChains may include it.
      *
      * @param hash The hash of the block to untrack.
      */
     public void untrackBlock(BlockChainInt hash) {
-        blockSequenceNumbers.remove(hash);
+        final long seqNum = getSequenceNumber(hash);
+
+        if (seqNum >= 0) {
+            detachForks(seqNum);
+            getTable().truncate(seqNum);
 
-        final int cacheIndex = hash.intValue() % cache.length;
-        if (cache[cacheIndex] != null) {
-            if (cache[cacheIndex].getHash().equals(hash)) {
-                cache[cacheIndex] = null;
+            if (primary) {
+                log(WriteAheadLog.HEAD, seqNum, 0);
             }
         }
     }
@@ -125,147 +349,336 @@ public class BlockCache {
     /**
      * Delete the Block with the given hash.
      *
+     * The log is append-only, so the space used by the block is not reclaimed.
+     *
      * @param hash The hash of the block to delete.
      */
     public void deleteBlock(BlockChainInt hash) {
-        getStoredFile(hash).delete();
         untrackBlock(hash);
     }
 
     /**
-     * Move the blocks so that they are stored as the primary Block for their sequence numbers.
+     * Delete the record of which blocks belong to this cache's BlockChain.
      */
-    public void makePrimary() {
-        primary = true;
+    public void delete() {
+        if (fork != null) {
+            fork = null;
+            return;
+        }
 
-        for (long seqNum : blockSequenceNumbers.values()) {
-            final File secondaryFile = getSecondaryFile(seqNum);
+        final AddressTable addresses = getAddresses();
 
-            if (secondaryFile.exists()) {
-                secondaryFile.renameTo(getPrimaryFile(seqNum));
-            }
+        if (addresses != null) {
+            detachForks(0);
+            log(WriteAheadLog.DELETE, 0, 0);
+            addresses.delete();
         }
     }
 
-    private boolean cacheBlockFromFile(BlockChainInt hash) {
-        final Block found = loadBlockFromFile(hash);
+    public boolean isPrimary() {
+        return primary;
+    }
+
+    /**
+     * Wait until every change recorded by this cache is on the storage device.
+     */
+    public void commit() {
+        final WriteAheadLog log = WriteAheadLog.getWriteAheadLog(directory);
 
-        if (found == null) {
-            return false;
+        if (log != null && lastLogged > 0) {
+            log.commit(lastLogged);
         }
+    }
 
-        cache[hash.intValue() % cache.length] = found;
+    /**
+     * Get the number of blocks in this cache's BlockChain, according to its address table.
+     */
+    public long size() {
+        final SlotTable table = getTable();
 
-        return true;
+        return table != null ? table.size() : 0;
     }
 
-    private Block loadBlockFromFile(BlockChainInt hash) {
-        return loadBlockFromFile(blockSequenceNumbers.get(hash));
+    /**
+     * Flush everything this cache has written, and drop the WriteAheadLog records it no longer needs.
+     *
+     * The records of every BlockChain in the directory are kept unless nothing has been logged since the flush began.
+     */
+    public void checkpoint() {
+        final WriteAheadLog log = WriteAheadLog.getWriteAheadLog(directory);
+        final long end = log != null ? log.getEnd() : 0;
+
+        flush();
+
+        if (log != null) {
+            log.checkpoint(end);
+        }
     }
 
-    private Block loadBlockFromFile(long seqNum) {
-        try (final ObjectInputStream in = new ObjectInputStream(new FileInputStream(getStoredFile(seqNum)))) {
-            return (Block) in.readObject();
-        } catch (FileNotFoundException e) {
-            return null;
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+    /**
+     * Apply a record of this cache's address table from the WriteAheadLog.
+     *
+     * Records are applied in the order they were written, so applying one again has no lasting effect.
+     */
+    void replay(int type, long first, long second) {
+        final AddressTable addresses = getAddresses();
+
+        if (addresses == null) {
+            return;
         }
 
-        return null;
-    }
+        switch (type) {
+            case WriteAheadLog.APPEND:
+                final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+                final BlockIndex index = BlockIndex.getBlockIndex(directory);
+                final BlockChainInt hash = headers != null ? headers.getHash(second) : null;
+
+                if (hash == null || index == null) {
+                    return;
+                }
+
+                try {
+                    index.put(hash, first, second);
+                    addresses.set(first, second);
+
+                    final Block block = getBlockInSlot(second, false);
 
-    private void saveBlockToFile(Block block) {
-        final File file = getWriteFile(block.getHash());
+                    if (block != null) {
+                        indexTransactions(block, first, second);
 
-        if (!file.exists()) {
+                        final UndoStore undoStore = UndoStore.getUndoStore(directory);
+
+                        if (undoStore != null && !undoStore.contains(second)) {
+                            storeUndoRecord(second, UndoRecord.of(block));
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                break;
+            case WriteAheadLog.HEAD:
+                addresses.truncate(first);
+                break;
+            case WriteAheadLog.DELETE:
+                addresses.delete();
+                break;
+        }
+    }
+
+    /**
+     * Write the blocks, the headers, the indexes, the undo records and this cache's address table to the storage
+     * device.
+     */
+    public void flush() {
+        final BlockLog log = BlockLog.getBlockLog(directory);
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+        final BlockIndex index = BlockIndex.getBlockIndex(directory);
+        final TransactionIndex transactionIndex = TransactionIndex.getTransactionIndex(directory);
+        final UndoStore undoStore = UndoStore.getUndoStore(directory);
+        final AddressTable addresses = fork == null ? getAddresses() : null;
+
+        if (log != null) {
             try {
-                file.createNewFile();
+                log.force();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
-        try (final ObjectOutputStream out
-                     = new ObjectOutputStream(new FileOutputStream(file))) {
+        if (headers != null) {
+            headers.force();
+        }
 
-            out.writeObject(block);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (index != null) {
+            index.force();
+        }
+
+        if (transactionIndex != null) {
+            transactionIndex.force();
+        }
+
+        if (undoStore != null) {
+            undoStore.force();
+        }
+
+        if (addresses != null) {
+            addresses.force();
         }
     }
 
     /**
-     * Gets the File where the block with the given hash should be saved.
-     *
-     * @param hash The hash of the Block to get the file for.
-     * @return The File to save the Block with the given hash.
+     * Get the table of this cache's BlockChain, which is an overlay on the forked BlockChain's table for a fork.
      */
-    private File getWriteFile(BlockChainInt hash) {
-        return getWriteFile(blockSequenceNumbers.get(hash));
+    private SlotTable getTable() {
+        final ForkTable fork = this.fork;
+
+        return fork != null ? fork : getAddresses();
+    }
+
+    private synchronized void addFork(ForkTable fork) {
+        if (forks == null) {
+            forks = new ArrayList<>();
+        }
+
+        forks.add(new WeakReference<>(fork));
     }
 
     /**
-     * Gets the File where the Block with the given sequence number should be saved.
-     *
-     * If this is for a primary blockchain, this returns the result of getPrimaryFile().
-     * If this is not for a primary blockchain, this returns the result of getSecondaryFile().
-     *
-     * @param seqNum The index of this block in the order of the blockchain.
-     * @return The File to save the Block with the given sequence number.
+     * Have every fork of this cache's BlockChain that is still in use copy the heights it shares from the given height
+     * on, before they are changed.
      */
-    private File getWriteFile(long seqNum) {
-        return primary ? getPrimaryFile(seqNum) : getSecondaryFile(seqNum);
+    private synchronized void detachForks(long height) {
+        if (forks == null) {
+            return;
+        }
+
+        final Iterator<WeakReference<ForkTable>> iterator = forks.iterator();
+
+        while (iterator.hasNext()) {
+            final ForkTable fork = iterator.next().get();
+
+            if (fork == null) {
+                iterator.remove();
+            } else {
+                fork.detach(height);
+            }
+        }
     }
 
-    private File getStoredFile(BlockChainInt hash) {
-        return getStoredFile(blockSequenceNumbers.get(hash));
+    private synchronized AddressTable getAddresses() {
+        if (addresses == null) {
+            try {
+                directory.mkdirs();
+                addresses = AddressTable.open(getAddressFile());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return addresses;
+    }
+
+    private void log(int type, long first, long second) {
+        final WriteAheadLog log = WriteAheadLog.getWriteAheadLog(directory);
+
+        if (log == null) {
+            return;
+        }
+
+        try {
+            lastLogged = log.append(type, uid, first, second);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private File getAddressFile() {
+        return new File(directory, "IDCAddresses_" + uid + ".dat");
     }
 
     /**
-     * Gets the file that this block is stored in.
+     * Get the cache of decoded blocks shared by every BlockChain in this directory.
      *
-     * The BlockChain this cache belongs to may have some blocks in common with the primary blockchain,
-     * or it is the primary blockchain.
-     *
-     * It gets the secondary File and returns it if it exists, otherwise it returns the primary file.
-     *
-     * @param seqNum The index of this block in the order of the blockchain.
-     * @return The File where the desired Block is stored.
+     * @return The BlockLruCache, which counts its hits, misses and evictions.
      */
-    private File getStoredFile(long seqNum) {
-        final File file = getSecondaryFile(seqNum);
+    public BlockLruCache getLruCache() {
+        return BlockLruCache.getBlockLruCache(directory);
+    }
+
+    private Block loadBlock(long address) {
+        final BlockLog log = BlockLog.getBlockLog(directory);
 
-        if (file.exists()) {
-            return file;
+        if (log == null) {
+            return null;
         }
 
-        return getPrimaryFile(seqNum);
+        try {
+            return BlockCodec.decode(log.read(address));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
     }
 
     /**
-     * Return the file that this block is stored in if this was a primary BlockCache.
-     *
-     * This file does not contain the BlockChain's uid in the file name.
+     * Get the undo record of the block at the given position, building it from the block if none was stored.
      *
-     * @param seqNum The index of this block in the order of the blockchain.
-     * @return The File storing the primary block with this sequence number.
+     * @param seqNum The position of the block in this cache's BlockChain.
+     * @return The undo record, or null if there is no block at this position.
      */
-    private File getPrimaryFile(long seqNum) {
-        return Paths.get(directory.getAbsolutePath()).resolve("IDCBlock_" + seqNum + ".dat").toFile();
+    UndoRecord getUndoRecord(long seqNum) {
+        final SlotTable table = getTable();
+        final UndoStore undoStore = UndoStore.getUndoStore(directory);
+
+        if (table == null) {
+            return null;
+        }
+
+        final long slot = table.get(seqNum);
+
+        if (undoStore != null && slot >= 0) {
+            try {
+                final byte[] record = undoStore.get(slot);
+
+                if (record != null) {
+                    return UndoRecord.decode(record);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        final Block block = getBlockInSlot(slot, false);
+
+        return block != null ? UndoRecord.of(block) : null;
     }
 
     /**
-     * Get the File for the block with the BlockChain uid in the file name.
+     * Append the block to the log and its header to the header store, record it and its transactions in the
+     * indexes, and store its undo record.
      *
-     * @param seqNum The index of this block in the order of the blockchain.
-     * @return The File to store the block for this secondary blockchain.
+     * @param undo The undo record of the block, or null to build it from the block.
+     * @return The slot of the block's header.
      */
-    private File getSecondaryFile(long seqNum) {
-        return Paths.get(directory.getAbsolutePath()).resolve("IDCBlock_" + seqNum + "_" + uid + ".dat").toFile();
+    private long saveBlock(Block block, long seqNum, UndoRecord undo) throws IOException {
+        final BlockLog log = BlockLog.getBlockLog(directory);
+        final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+        final BlockIndex index = BlockIndex.getBlockIndex(directory);
+
+        if (log == null || headers == null || index == null) {
+            throw new IOException("Could not open the block storage in " + directory);
+        }
+
+        final long slot = headers.append(block.getHeader(), log.append(BlockCodec.encode(block)));
+        index.put(block.getHash(), seqNum, slot);
+        indexTransactions(block, seqNum, slot);
+        storeUndoRecord(slot, undo != null ? undo : UndoRecord.of(block));
+
+        return slot;
+    }
+
+    private void storeUndoRecord(long slot, UndoRecord undo) throws IOException {
+        final UndoStore undoStore = UndoStore.getUndoStore(directory);
+
+        if (undoStore == null) {
+            throw new IOException("Could not open the undo store in " + directory);
+        }
+
+        undoStore.put(slot, undo.encode());
+    }
+
+    private void indexTransactions(Block block, long seqNum, long slot) throws IOException {
+        final TransactionIndex index = TransactionIndex.getTransactionIndex(directory);
+
+        if (index == null) {
+            throw new IOException("Could not open the transaction index in " + directory);
+        }
+
+        final List<Transaction> transactions = block.getTransactions();
+
+        for (int i = 0; i < transactions.size(); i++) {
+            index.put(transactions.get(i).getHash(), seqNum, slot, i);
+        }
     }
 }
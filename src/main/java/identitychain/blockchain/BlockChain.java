@@ -1,16 +1,22 @@
 package identitychain.blockchain;
 
+import identitychain.blockchain.storage.TransactionIndex;
+import identitychain.blockchain.storage.WriteAheadLog;
 import identitychain.blockchain.transaction.IdentityEntry;
 import identitychain.blockchain.transaction.Transaction;
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.NameTrie;
 import identitychain.mining.MiningBlock;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.stream.Collectors;
 
 public class BlockChain extends Observable implements Serializable, Iterable<Block> {
     private final BlockCache cache;
@@ -19,10 +25,26 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
 
     private BlockChainInt head = BlockChainInt.ZERO;
     private long size = 0;
+    private long validatedSize = 0;
     private final long uid;
 
+    private transient volatile boolean deleted = false;
+    private transient BalanceLedger ledger;
+    private transient IdentityIndex identities;
+
+    // Held by pushBlock(), reorganize() and dropBlocks(), so that only one of them changes the blocks at a time.
+    private transient Lock changeLock = new ReentrantLock();
+
     private static long curID = 0;
     private static final Lock curIDLock = new ReentrantLock();
+    private static final Object SAVE_LOCK = new Object();
+
+    private static final ExecutorService NOTIFIER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "BlockChainNotifier");
+        thread.setDaemon(true);
+
+        return thread;
+    });
 
     private BlockChain(File directory) {
         this(directory, 0);
@@ -63,7 +85,7 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
         final File file = new File(directory.getAbsolutePath() + "/IDCBlockChain.dat");
 
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
-            return (BlockChain) in.readObject();
+            return recover((BlockChain) in.readObject());
         } catch (FileNotFoundException e) {
 
         } catch (IOException e) {
@@ -72,7 +94,40 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
             e.printStackTrace();
         }
 
-        return new BlockChain(directory);
+        return recover(new BlockChain(directory));
+    }
+
+    /**
+     * Replay the WriteAheadLog over the saved state of the directory, and checkpoint the result.
+     *
+     * The saved BlockChain may be older than the log, so its head and size are taken from its address table. Records
+     * are kept per address table, and the records of tables that have since been deleted are replayed as well, so
+     * that every block they stored is indexed.
+     *
+     * @param blockChain The BlockChain loaded from IDCBlockChain.dat.
+     * @return The BlockChain as of the last committed record.
+     */
+    private static BlockChain recover(BlockChain blockChain) {
+        final File directory = blockChain.directory;
+        final WriteAheadLog log = WriteAheadLog.getWriteAheadLog(directory);
+
+        if (log == null) {
+            return blockChain;
+        }
+
+        final Map<Long, BlockCache> caches = new HashMap<>();
+        caches.put(blockChain.uid, blockChain.cache);
+
+        log.replay((type, tableId, first, second) ->
+                caches.computeIfAbsent(tableId, id -> new BlockCache(directory, id)).replay(type, first, second));
+
+        final long size = blockChain.cache.size();
+        blockChain.size = size;
+        blockChain.validatedSize = Math.min(blockChain.validatedSize, size);
+        blockChain.head = size > 0 ? blockChain.cache.getHash(size - 1) : BlockChainInt.ZERO;
+        blockChain.saveToFile();
+
+        return blockChain;
     }
 
     public long getSize() {
@@ -95,51 +150,119 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
         return cache.getBlock(seqNum);
     }
 
+    /**
+     * Get the block at the given position, without adding it to the shared cache if it was not already there.
+     */
+    Block getBlock(long seqNum, boolean cacheBlock) {
+        return cache.getBlock(seqNum, cacheBlock);
+    }
+
+    public BlockHeader getHeader(BlockChainInt hash) {
+        return cache.getHeader(hash);
+    }
+
+    public BlockHeader getHeader(long seqNum) {
+        return cache.getHeader(seqNum);
+    }
+
+    /**
+     * Check the blocks that have not been checked since they were added.
+     *
+     * Every block pushed onto a BlockChain is checked by pushBlock(), so the BlockChain keeps the number of leading
+     * blocks known to be valid, and only the blocks after it are checked here. Disconnecting blocks lowers the mark to
+     * the new size, so after a reorganization only the blocks past the common ancestor are checked, however long the
+     * chain is.
+     *
+     * @return If the blocks after the mark link to each other, have non-decreasing time stamps, and leave no wallet
+     *         they pay into or out of with a negative balance.
+     */
     public boolean isValid() {
-        final Map<PublicKey, Long> balances = new HashMap<>();
+        final long size;
+        final long validated;
 
-        if (!cache.getBlock(0).getPreviousBlockHash().equals(BlockChainInt.ZERO)) {
-            return false;
+        synchronized (this) {
+            size = this.size;
+            validated = validatedSize;
+        }
+
+        if (validated >= size) {
+            return true;
         }
 
-        int lastTime = Integer.MAX_VALUE;
+        final BalanceLedger ledger = getLedger();
+        final Set<PublicKey> wallets = new HashSet<>();
 
-        for (Block block : this) {
-            if (!block.isValid()) {
+        BlockChainInt previousHash = validated > 0 ? cache.getHash(validated - 1) : BlockChainInt.ZERO;
+        int lastTime = validated > 0 ? cache.getHeader(validated - 1).getTimeStamp() : Integer.MIN_VALUE;
+
+        for (long seqNum = validated; seqNum < size; seqNum++) {
+            final Block block = cache.getBlock(seqNum, false);
+
+            if (block == null || !block.isValid() || !block.getPreviousBlockHash().equals(previousHash)) {
                 return false;
             }
 
-            if (block.getTimeStamp() > lastTime) {
+            if (block.getTimeStamp() < lastTime) {
                 return false;
             }
 
+            previousHash = block.getHash();
             lastTime = block.getTimeStamp();
+            wallets.addAll(block.getEffects().keySet());
+        }
 
-            for (Map.Entry<PublicKey, Long> entry : block.getEffects().entrySet()) {
-                balances.merge(entry.getKey(), entry.getValue(), (x, y) -> x + y);
+        for (PublicKey wallet : wallets) {
+            if (ledger.getBalance(wallet) < 0) {
+                return false;
             }
         }
 
-        for (long value : balances.values()) {
-            if (value < 0) {
-                return false;
+        synchronized (this) {
+            if (this.size == size && validatedSize == validated) {
+                validatedSize = size;
             }
         }
 
         return true;
     }
 
+    /**
+     * Get the number of leading blocks known to be valid, which isValid() does not check again.
+     */
+    public synchronized long getValidatedSize() {
+        return validatedSize;
+    }
+
     public boolean pushBlock(Block block) {
         if (!block.isValid()) {
             return false;
         }
 
+        changeLock.lock();
+        try {
+            return connectBlock(block);
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    /**
+     * Check the block against the head and the states, and add it to the end. The change lock must be held.
+     */
+    private boolean connectBlock(Block block) {
         if (head != null) {
             if (!block.getPreviousBlockHash().equals(head)) {
                 return false;
             }
         }
 
+        // The validated mark moves with the head, so isValid() never checks the time stamp of a pushed block.
+        final BlockHeader last = size > 0 ? cache.getHeader(size - 1) : null;
+
+        if (last != null && block.getTimeStamp() < last.getTimeStamp()) {
+            return false;
+        }
+
         if (!block.verifyCoinbase()) {
             return false;
         }
@@ -148,71 +271,282 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
             return false;
         }
 
-        cache.storeBlock(block, size);
-        head = block.getHash();
-        size++;
+        if (!verifyTransactions(block)) {
+            return false;
+        }
 
-        Thread notify = new Thread(() -> {
-            notifyObservers();
-        });
-        notify.start();
+        final BalanceLedger ledger = getLedger();
+        final IdentityIndex identities = getIdentities();
+        final UndoRecord undo = UndoRecord.of(block);
+
+        cache.storeBlock(block, size, undo);
+        BlockTree.getBlockTree(directory).add(block.getHeader());
+
+        final long newSize;
+
+        synchronized (this) {
+            head = block.getHash();
+
+            // pushBlock() checked the block against the blocks before it, so the mark moves with the head if it was
+            // already there.
+            if (validatedSize == size) {
+                validatedSize++;
+            }
+
+            size++;
+            newSize = size;
+        }
+
+        ledger.apply(block);
+        identities.apply(block);
+
+        cache.commit();
+
+        notifyInBackground(new BlockChainEvent(BlockChainEvent.Type.PUSHED, undo, newSize));
 
         saveToFileInBackground();
 
         return true;
     }
 
-    public boolean propose(MiningBlock block) {
-        return verifyEffects(block.toBlock());
+    /**
+     * Move the head to the end of a branch that starts after one of this BlockChain's blocks.
+     *
+     * The blocks after the branch point are disconnected by truncating the address table, and each block of the
+     * branch is then connected with pushBlock(), so the blocks before the branch point are not checked again. If a
+     * block of the branch is rejected it is marked invalid in the BlockTree, and if a block of the branch is rejected
+     * or cannot be read, the disconnected blocks are connected again. Only the disconnected blocks are read, from
+     * their undo records, so the cost depends on the depth of the reorganization and not on the length of the chain.
+     *
+     * If a disconnected block cannot be connected again, the BlockChain is left ending at the block before it and the
+     * failure is reported, so the head may have changed even if the reorganization failed.
+     *
+     * The change lock is held throughout, so a block pushed by the miner meanwhile waits for the new head, and is then
+     * rejected if it was mined on a block that was disconnected.
+     *
+     * @param ancestor The last block this BlockChain keeps, or ZERO to replace every block.
+     * @param branch The hashes of the stored blocks to connect after the ancestor, in order.
+     * @return The number of blocks of the branch that were connected, which is the size of the branch if the
+     *         reorganization succeeded.
+     */
+    int reorganize(BlockChainInt ancestor, List<BlockChainInt> branch) {
+        changeLock.lock();
+        try {
+            return connectBranch(ancestor, branch);
+        } finally {
+            changeLock.unlock();
+        }
     }
 
-    public void delete(BlockChainInt stopHash) {
-        for (Block block : this) {
-            if (block.getHash().equals(stopHash)) {
+    private int connectBranch(BlockChainInt ancestor, List<BlockChainInt> branch) {
+        final long forkSize = cache.getSequenceNumber(ancestor) + 1;
+
+        if (forkSize == 0 && !ancestor.equals(BlockChainInt.ZERO)) {
+            return 0;
+        }
+
+        final List<BlockChainInt> disconnected = new ArrayList<>();
+
+        for (long seqNum = forkSize; seqNum < size; seqNum++) {
+            disconnected.add(cache.getHash(seqNum));
+        }
+
+        truncate(forkSize, ancestor);
+
+        int connected = 0;
+
+        for (BlockChainInt hash : branch) {
+            final Block block = cache.getStoredBlock(hash);
+
+            // A block that cannot be read may still be valid, so only a rejected block is marked invalid.
+            if (block == null) {
+                break;
+            }
+
+            if (!pushBlock(block)) {
+                BlockTree.getBlockTree(directory).invalidate(hash);
                 break;
             }
 
-            cache.deleteBlock(block.getHash());
+            connected++;
+        }
+
+        if (connected < branch.size()) {
+            truncate(forkSize, ancestor);
+
+            for (BlockChainInt hash : disconnected) {
+                final Block block = cache.getStoredBlock(hash);
+
+                if (block == null || !pushBlock(block)) {
+                    System.err.println("Could not connect block " + hash + " again after a failed reorganization, "
+                            + "the BlockChain now ends at height " + size + ".");
+                    break;
+                }
+            }
+        }
+
+        return connected;
+    }
+
+    /**
+     * Remove the blocks after the given size, reverting their effects on the balances and identities with their undo
+     * records.
+     *
+     * The observers are sent a REVERTED event for each block removed.
+     */
+    private void truncate(long newSize, BlockChainInt newHead) {
+        getLedger();
+        getIdentities();
+
+        dropBlocks(newSize, newHead);
+    }
+
+    /**
+     * Remove the blocks after the given size, reverting their effects on the states that are loaded.
+     *
+     * A state that is not loaded yet is caught up to the new size when it is first used. The change lock must be held.
+     */
+    private void dropBlocks(long newSize, BlockChainInt newHead) {
+        final List<BlockChainEvent> reverted = new ArrayList<>();
+
+        for (long seqNum = size - 1; seqNum >= newSize; seqNum--) {
+            final UndoRecord undo = cache.getUndoRecord(seqNum);
+
+            if (ledger != null && ledger.size() > seqNum) {
+                ledger.revert(undo);
+            }
+
+            if (identities != null && identities.size() > seqNum) {
+                identities.revert(undo);
+            }
+
+            reverted.add(new BlockChainEvent(BlockChainEvent.Type.REVERTED, undo, seqNum));
+        }
+
+        if (newSize < size) {
+            cache.untrackBlock(cache.getHash(newSize));
+        }
+
+        synchronized (this) {
+            head = newSize > 0 ? newHead : BlockChainInt.ZERO;
+            size = newSize;
+            validatedSize = Math.min(validatedSize, newSize);
         }
 
-        getFile().delete();
+        for (BlockChainEvent event : reverted) {
+            notifyInBackground(event);
+        }
+    }
+
+    /**
+     * Send an event to the observers from the notifier thread.
+     *
+     * Every BlockChain shares the one thread, so events are delivered in the order they were sent, and an observer
+     * never sees a block reverted before it was pushed. Observable only notifies its observers if it has been marked
+     * as changed since the last notification, and the mark and the notification are only made on that thread, so no
+     * event is dropped.
+     */
+    private void notifyInBackground(BlockChainEvent event) {
+        NOTIFIER.execute(() -> {
+            setChanged();
+            notifyObservers(event);
+        });
+    }
+
+    /**
+     * Run a task on the notifier thread, after every event sent before it.
+     *
+     * BlockChainManager sends its reorganization notice this way, so it reaches the observers after the PUSHED and
+     * REVERTED events of the reorganization.
+     */
+    static void runOnNotifier(Runnable task) {
+        NOTIFIER.execute(task);
+    }
+
+    public boolean propose(MiningBlock block) {
+        return verifyEffects(block.toBlock());
+    }
+
+    /**
+     * Delete the address table of this BlockChain, unless a fork that replaced it has taken the table over.
+     *
+     * Blocks stay in the shared log, since other BlockChains may include them, so nothing needs to be done for the
+     * blocks after stopHash. The saved file is left for the BlockChain replacing this one to overwrite.
+     *
+     * @param stopHash The last block this BlockChain shares with the BlockChain replacing it.
+     */
+    public void delete(BlockChainInt stopHash) {
+        deleted = true;
+        cache.delete();
     }
 
     /**
      * Create a new Blockchain starting from the specified block.
      *
+     * The fork shares this BlockChain's storage up to the fork point, and is never saved. Its blocks are connected to
+     * this BlockChain by BlockChainManager.replaceBlockChain() if it has more work. Its balances and identities are
+     * overlays on this BlockChain's, so forking only costs the blocks after the fork point, which are reverted in
+     * the overlays. The change lock is held while forking, so the blocks reverted are the ones the overlays applied.
+     *
      * @param forkHash The block to make the head of the new Blockchain.
      * @return A BlockChain with the block that hashes to forkHash as the head.
      */
     public BlockChain forkBlockChain(BlockChainInt forkHash) {
-        final BlockCache newCache = new BlockCache(cache, uid);
+        changeLock.lock();
+        try {
+            return fork(forkHash);
+        } finally {
+            changeLock.unlock();
+        }
+    }
 
-        for (Block block : this) {
-            if (block.getHash().equals(forkHash)) {
-                break;
+    private BlockChain fork(BlockChainInt forkHash) {
+        final long newUID = getCurID();
+        final long forkSize = cache.getSequenceNumber(forkHash) + 1;
+
+        final BlockChain newChain = new BlockChain(directory, newUID, new BlockCache(cache, newUID, forkSize));
+        newChain.head = forkSize > 0 ? forkHash : BlockChainInt.ZERO;
+        newChain.size = forkSize;
+        newChain.validatedSize = Math.min(getValidatedSize(), forkSize);
+        newChain.ledger = getLedger().overlay();
+        newChain.identities = getIdentities().overlay();
+
+        // Each overlay only reverts the blocks it has applied, as dropBlocks() does.
+        final long stateSize = Math.max(newChain.ledger.size(), newChain.identities.size());
+
+        for (long seqNum = stateSize - 1; seqNum >= forkSize; seqNum--) {
+            final UndoRecord undo = cache.getUndoRecord(seqNum);
+
+            if (newChain.ledger.size() > seqNum) {
+                newChain.ledger.revert(undo);
             }
 
-            newCache.untrackBlock(block.getHash());
+            if (newChain.identities.size() > seqNum) {
+                newChain.identities.revert(undo);
+            }
         }
 
-        final BlockChain newChain = new BlockChain(directory, getCurID(), newCache);
-        newChain.saveToFileInBackground();
-
         return newChain;
     }
 
-    public void makePrimary() {
-        cache.makePrimary();
-    }
-
+    /**
+     * List the hashes of every block, from the head back to the first block.
+     *
+     * Only the header records are read.
+     *
+     * @return The hashes of the blocks in this BlockChain.
+     */
     public LinkedList<BlockChainInt> traceBlockchain() {
         final LinkedList<BlockChainInt> trace = new LinkedList<>();
 
-        for (Block block = cache.getBlock(head);
-             block != null;
-             block = cache.getBlock(block.getPreviousBlockHash(), false)) {
+        for (long seqNum = size - 1; seqNum >= 0; seqNum--) {
+            final BlockChainInt hash = cache.getHash(seqNum);
 
-            trace.add(block.getHash());
+            if (hash == null) {
+                break;
+            }
+
+            trace.add(hash);
         }
 
         return trace;
@@ -220,7 +554,7 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
 
     public BlockChainInt getFirstCommonBlock(List<BlockChainInt> trace) {
         for (BlockChainInt blockHash : trace) {
-            if (cache.getBlock(blockHash) != null) {
+            if (cache.getSequenceNumber(blockHash) >= 0) {
                 return blockHash;
             }
         }
@@ -229,150 +563,296 @@ public class BlockChain extends Observable implements Serializable, Iterable<Blo
     }
 
     public double getTotalDifficulty() {
-        double difficulty = 0.0;
+        return cache.getTotalDifficulty(size);
+    }
 
-        for (Block block = cache.getBlock(head);
-             block != null;
-             block = cache.getBlock(block.getPreviousBlockHash(), false)) {
+    public long getBalance(PublicKey wallet) {
+        return getLedger().getBalance(wallet);
+    }
+
+    /**
+     * Get the balances after the last block, loading the checkpoint of the primary BlockChain on first use.
+     */
+    private BalanceLedger getLedger() {
+        changeLock.lock();
+        try {
+            if (ledger == null) {
+                ledger = catchUp(cache.isPrimary() ? BalanceLedger.read(getBalanceFile()) : null, new BalanceLedger());
+            }
 
-            difficulty += BlockChainInt.MAX_TARGET.doubleValue() / block.getTarget().doubleValue();
+            return ledger;
+        } finally {
+            changeLock.unlock();
         }
+    }
+
+    /**
+     * Get the identities after the last block, loading the checkpoint of the primary BlockChain on first use.
+     */
+    private IdentityIndex getIdentities() {
+        changeLock.lock();
+        try {
+            if (identities == null) {
+                identities = catchUp(
+                        cache.isPrimary() ? IdentityIndex.read(getIdentityFile()) : null,
+                        new IdentityIndex()
+                );
+            }
 
-        return difficulty;
+            return identities;
+        } finally {
+            changeLock.unlock();
+        }
     }
 
-    public long getBalance(PublicKey wallet) {
-        long balance = 0;
+    /**
+     * Apply the blocks pushed since a checkpoint was written, or every block if the checkpoint is missing or its last
+     * block is no longer part of this BlockChain.
+     *
+     * @param checkpoint The state read from the checkpoint, or null.
+     * @param empty The state before the first block.
+     * @return The state after the last block.
+     */
+    private <T extends ChainState<T>> T catchUp(T checkpoint, T empty) {
+        T state = checkpoint;
+
+        if (state == null
+                || state.size() > size
+                || (state.size() > 0 && !state.getHead().equals(cache.getHash(state.size() - 1)))) {
 
-        for (Block block : this) {
-            balance += block.getEffects().get(wallet);
+            state = empty;
         }
 
-        return balance;
-    }
+        for (long seqNum = state.size(); seqNum < size; seqNum++) {
+            final Block block = cache.getBlock(seqNum, false);
 
-    public Set<IdentityEntry> getAllIdentitiesWithName(String name) {
-        final Set<IdentityEntry> identities = new HashSet<>();
-
-        for (Block block : this) {
-            for (Transaction transaction : block.getTransactions()) {
-                if (transaction instanceof IdentityEntry) {
-                    final String transactionName = ((IdentityEntry) transaction).getName();
-                    if (transactionName.equals(name)) {
-                        identities.add((IdentityEntry) transaction);
-                    }
-                }
+            // A block that cannot be read is dropped along with the blocks after it, so that they are downloaded
+            // again, rather than leaving the state behind the head.
+            if (block == null) {
+                dropBlocks(seqNum, seqNum > 0 ? cache.getHash(seqNum - 1) : BlockChainInt.ZERO);
+                break;
             }
+
+            state.apply(block);
         }
 
-        return identities;
+        return state;
     }
 
-    public IdentityEntry getIdentity(PublicKey key) {
-        for (Block block : this) {
-            for (Transaction transaction : block.getTransactions()) {
-                if (transaction instanceof IdentityEntry) {
-                    final PublicKey transactionKey = ((IdentityEntry) transaction).getPublicKey();
-                    if (transactionKey.equals(key)) {
-                        return (IdentityEntry) transaction;
-                    }
-                }
-            }
+    private File getBalanceFile() {
+        return new File(directory.getAbsolutePath() + "/IDCBalances.dat");
+    }
+
+    private File getIdentityFile() {
+        return new File(directory.getAbsolutePath() + "/IDCIdentities.dat");
+    }
+
+    /**
+     * Get a transaction of this BlockChain by its hash.
+     *
+     * @param hash The hash of the transaction.
+     * @return The transaction, or null if no block of this BlockChain includes it.
+     */
+    public Transaction getTransaction(BlockChainInt hash) {
+        final TransactionIndex.Entry entry = cache.findTransaction(hash);
+
+        if (entry == null || entry.getHeight() >= size) {
+            return null;
         }
 
-        return null;
+        final Block block = cache.getBlock(entry.getHeight());
+
+        return block != null ? block.getTransactions().get(entry.getPosition()) : null;
+    }
+
+    public boolean containsTransaction(BlockChainInt hash) {
+        final TransactionIndex.Entry entry = cache.findTransaction(hash);
+
+        return entry != null && entry.getHeight() < size;
+    }
+
+    public Set<IdentityEntry> getAllIdentitiesWithName(String name) {
+        return getIdentities().getAllWithName(name);
+    }
+
+    /**
+     * Find the names of IdentityEntries that start with the given prefix.
+     *
+     * @param prefix The start of the names.
+     * @param limit The most names to return.
+     * @return The names in character order.
+     */
+    public List<String> findNamesWithPrefix(String prefix, int limit) {
+        return getIdentities().findNamesWithPrefix(prefix, limit);
+    }
+
+    /**
+     * Find the names of IdentityEntries within the given edit distance of a name.
+     *
+     * @param name The name to compare with.
+     * @param maxDistance The most insertions, deletions and substitutions a match may differ by.
+     * @param limit The most names to return.
+     * @return The closest names, ordered by distance and then by name.
+     */
+    public List<NameTrie.Match> findSimilarNames(String name, int maxDistance, int limit) {
+        return getIdentities().findSimilarNames(name, maxDistance, limit);
+    }
+
+    /**
+     * Get the latest IdentityEntry of the given key.
+     *
+     * @return The entry, or null if the key has none in this BlockChain.
+     */
+    public IdentityEntry getIdentity(PublicKey key) {
+        return getIdentities().get(key);
     }
 
     @Override
     public Iterator<Block> iterator() {
         return new Iterator<Block>() {
-            Block current = cache.getBlock(head, false);
+            Block next = cache.getBlock(head, false);
 
             @Override
             public boolean hasNext() {
-                return cache.getBlock(current.getPreviousBlockHash(), false) != null;
+                return next != null;
             }
 
             @Override
             public Block next() {
-                current = cache.getBlock(current.getPreviousBlockHash(), false);
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                final Block current = next;
+                next = cache.getBlock(current.getPreviousBlockHash(), false);
 
                 return current;
             }
         };
     }
 
-    private boolean verifyEffects(Block block) {
-        final Map<PublicKey, Long> effects = block.getNegativeEffects();
-
-        final Set<BlockChainInt> transactionHashes = block.getTransactions().stream()
-                .map(Transaction::getHash)
-                .collect(Collectors.toSet());
-
-        if (effects.isEmpty()) {
-            return true;
+    /**
+     * Check that every transaction after the coinbase is signed and has no negative amounts.
+     *
+     * The signatures are checked on the SignatureBatch pool first, so the transaction checks after it read them from
+     * the SignatureCache. A synchronizer that checked a window of blocks ahead of pushing them only hits the cache.
+     */
+    private boolean verifyTransactions(Block block) {
+        if (SignatureBatch.verify(block) >= 0) {
+            return false;
         }
 
-        for (Block cur : this) {
-
-            // Check for a duplicate transaction.
-            if (cur.getTransactions().stream()
-                    .map(transaction -> transactionHashes.contains(transaction.getHash()))
-                    .reduce(false, (a, b) -> a || b)) {
+        final List<Transaction> transactions = block.getTransactions();
 
+        for (int i = 1; i < transactions.size(); i++) {
+            if (!transactions.get(i).isValid()) {
                 return false;
             }
+        }
 
-            final Map<PublicKey, Long> blockEffects = cur.getEffects();
+        return true;
+    }
 
-            for (PublicKey key : effects.keySet()) {
-                effects.compute(key, (k, v) -> v + blockEffects.get(key));
+    /**
+     * Check that the block repeats no transaction of this BlockChain, and that no wallet spends more than its balance.
+     *
+     * Duplicates are found with the TransactionIndex and balances are read from the ledger, so no earlier block is
+     * loaded.
+     */
+    private boolean verifyEffects(Block block) {
+        final Set<BlockChainInt> transactionHashes = new HashSet<>();
 
-                if (effects.get(key) >= 0) {
-                    effects.remove(key);
-                }
+        for (Transaction transaction : block.getTransactions()) {
+            final BlockChainInt hash = transaction.getHash();
+
+            if (!transactionHashes.add(hash) || cache.findTransaction(hash) != null) {
+                return false;
             }
+        }
 
-            if (effects.isEmpty()) {
-                return true;
+        final BalanceLedger ledger = getLedger();
+
+        for (Map.Entry<PublicKey, Long> entry : block.getNegativeEffects().entrySet()) {
+            if (ledger.getBalance(entry.getKey()) + entry.getValue() < 0) {
+                return false;
             }
         }
 
-        return false;
+        return true;
     }
 
+    /**
+     * Write this BlockChain to IDCBlockChain.dat, if it is the primary BlockChain.
+     *
+     * The BlockChain is written to a temporary file which then replaces the old file, so a crash during the save
+     * leaves the previous state intact. Forks are only kept in memory.
+     */
     public void saveToFile() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(getFile()))) {
-            out.writeObject(this);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
+        synchronized (SAVE_LOCK) {
+            if (deleted || !cache.isPrimary()) {
+                return;
+            }
 
-    public void saveToFileInBackground() {
-        Thread save = new Thread(() -> saveToFile());
+            cache.checkpoint();
 
-        save.start();
-    }
+            final File file = new File(directory.getAbsolutePath() + "/IDCBlockChain.dat");
+            final File temp = new File(file.getAbsolutePath() + ".tmp");
 
-    private void saveToFileUID() {
-        final File file = new File(directory.getAbsolutePath() + "/IDCBlockChain_" + uid + ".dat");
+            try (FileOutputStream fileOut = new FileOutputStream(temp);
+                 ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
 
-        Thread save = new Thread(() -> {
-            try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file))) {
                 out.writeObject(this);
+                out.flush();
+                fileOut.getFD().sync();
             } catch (IOException e) {
                 e.printStackTrace();
+                return;
             }
-        });
-        save.start();
-    }
 
-    private File getFile() {
-        if (getFromDirectory(directory).uid >= uid) {
-            return new File(directory.getAbsolutePath() + "/IDCBlockChain.dat");
+            try {
+                Files.move(
+                        temp.toPath(),
+                        file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE
+                );
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            if (ledger != null) {
+                ledger.write(getBalanceFile());
+            }
+
+            if (identities != null) {
+                identities.write(getIdentityFile());
+            }
         }
+    }
+
+    /**
+     * Save this BlockChain on the shared writer thread.
+     *
+     * Saves that are requested while one is already waiting are merged into it.
+     */
+    public void saveToFileInBackground() {
+        BlockChainWriter.schedule(this);
+    }
 
-        return new File(directory.getAbsolutePath() + "/IDCBlockChain_" + uid + ".dat");
+    /**
+     * Take a consistent snapshot of the head and size, which are updated by pushBlock().
+     */
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Forks created after loading must not reuse the uid of this BlockChain.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        changeLock = new ReentrantLock();
+        setCurID(uid + 1);
     }
 }
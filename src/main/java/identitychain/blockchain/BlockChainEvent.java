@@ -0,0 +1,56 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.transaction.IdentityEntry;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.util.List;
+
+/**
+ * The argument a BlockChain passes to its observers when a block is pushed onto it or disconnected from it.
+ *
+ * Events are sent after the balances and identities of the BlockChain have been updated, so an observer that reads
+ * the BlockChain when it receives one sees the change. An event describes the block by its undo record, so a
+ * disconnected block is not decoded to tell the observers about it.
+ */
+public final class BlockChainEvent {
+    public enum Type {
+        PUSHED,
+        REVERTED
+    }
+
+    private final Type type;
+    private final UndoRecord undo;
+    private final long size;
+
+    BlockChainEvent(Type type, UndoRecord undo, long size) {
+        this.type = type;
+        this.undo = undo;
+        this.size = size;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public BlockChainInt getHash() {
+        return undo.getHash();
+    }
+
+    /**
+     * Get the IdentityEntries of the block, in the order they were added.
+     */
+    public List<IdentityEntry> getIdentities() {
+        return undo.getIdentities();
+    }
+
+    public List<BlockChainInt> getTransactionHashes() {
+        return undo.getTransactionHashes();
+    }
+
+    /**
+     * Get the size of the BlockChain after the change.
+     */
+    public long getSize() {
+        return size;
+    }
+}
@@ -4,6 +4,7 @@ import identitychain.blockchain.utilities.BlockChainInt;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
@@ -18,17 +19,22 @@ public final class BlockChainManager extends Observable implements Observer {
     private static final Map<String, BlockChainManager> MANAGERS = new HashMap<>();
 
     private BlockChain blockChain;
+    private final BlockTree blockTree;
     private final Lock blockChainLock = new ReentrantLock();
     private double difficulty = 1.0;
 
-    private BlockChainManager(BlockChain blockChain) {
+    private BlockChainManager(BlockChain blockChain, BlockTree blockTree) {
         this.blockChain = blockChain;
+        this.blockTree = blockTree;
         blockChain.addObserver(this);
     }
 
     public static BlockChainManager getBlockChainManager(File file) {
         if (!MANAGERS.containsKey(file.getAbsolutePath())) {
-            MANAGERS.put(file.getAbsolutePath(), new BlockChainManager(BlockChain.getFromDirectory(file)));
+            MANAGERS.put(
+                    file.getAbsolutePath(),
+                    new BlockChainManager(BlockChain.getFromDirectory(file), BlockTree.getBlockTree(file))
+            );
         }
 
         return MANAGERS.get(file.getAbsolutePath());
@@ -47,26 +53,36 @@ public final class BlockChainManager extends Observable implements Observer {
         return BlockChainInt.fromDouble(BlockChainInt.MAX_TARGET.doubleValue() / difficulty);
     }
 
+    /**
+     * Switch the BlockChain to the head of the new one, if the new one has more work.
+     *
+     * Every block of the new BlockChain was checked when it was pushed, so isValid() only checks the blocks past its
+     * validated mark, and the current BlockChain is not checked again. The work of each head is read from the
+     * BlockTree, and the BlockChain is moved onto the new branch in place by disconnecting the blocks after the common
+     * ancestor and connecting the new ones. The new BlockChain is deleted once its blocks have been connected.
+     *
+     * @param newChain A fork of the BlockChain.
+     * @return If the BlockChain now ends with the head of the new one.
+     */
     public boolean replaceBlockChain(BlockChain newChain) {
         blockChainLock.lock();
         try {
-            if (!newChain.isValid()) {
+            final BlockTree.Node tip = blockTree.get(newChain.getHeadHash());
+            final BlockTree.Node head = blockTree.get(blockChain.getHeadHash());
+
+            if (tip == null || tip.isInvalid() || (head != null && head.getWork() >= tip.getWork())) {
                 return false;
             }
-            if (!blockChain.isValid()) {
-                makeReplacement(newChain);
-                return true;
-            }
 
-            final double difficulty = blockChain.getTotalDifficulty();
-            final double newDifficulty = newChain.getTotalDifficulty();
+            if (!newChain.isValid()) {
+                return false;
+            }
 
-            if (difficulty > newDifficulty
-                    || (difficulty == newDifficulty && blockChain.getSize() > newChain.getSize())) {
+            if (!reorganize(tip)) {
                 return false;
             }
 
-            makeReplacement(newChain);
+            newChain.delete(newChain.getHeadHash());
 
             return true;
         } finally {
@@ -74,26 +90,58 @@ public final class BlockChainManager extends Observable implements Observer {
         }
     }
 
-    private void makeReplacement(BlockChain newChain) {
-        blockChain.delete(blockChain.getFirstCommonBlock(newChain.traceBlockchain()));
+    /**
+     * Move the BlockChain onto the branch ending at the given tip. The BlockChain marks a block of the branch invalid
+     * if it rejects it.
+     *
+     * The observers are notified whenever the head changed, which can also happen if the reorganization failed and the
+     * disconnected blocks could not all be connected again.
+     */
+    private boolean reorganize(BlockTree.Node tip) {
+        final BlockChainInt oldHead = blockChain.getHeadHash();
+        final BlockTree.Node head = blockTree.get(oldHead);
+        final BlockTree.Node ancestor = BlockTree.getCommonAncestor(head, tip);
+        final List<BlockChainInt> branch = BlockTree.getBranch(ancestor, tip);
+
+        final int connected = blockChain.reorganize(
+                ancestor != null ? ancestor.getHash() : BlockChainInt.ZERO,
+                branch
+        );
+
+        if (connected < branch.size()) {
+            if (!blockChain.getHeadHash().equals(oldHead)) {
+                notifyInBackground();
+            }
+
+            return false;
+        }
+
+        notifyInBackground();
+
+        return true;
+    }
 
-        blockChain = newChain;
-        blockChain.makePrimary();
-        blockChain.saveToFileInBackground();
-        final Thread notify = new Thread(this::notifyObservers);
-        notify.start();
+    /**
+     * Notify the observers on the BlockChain's notifier thread, so they see the change after its block events.
+     */
+    private void notifyInBackground() {
+        BlockChain.runOnNotifier(() -> {
+            setChanged();
+            notifyObservers();
+        });
     }
 
     private void assessDifficulty() {
-        int headTime = blockChain.getHead().getTimeStamp();
-        difficulty = BlockChainInt.MAX_TARGET.doubleValue() / blockChain.getHead().getTarget().doubleValue();
+        final BlockHeader head = blockChain.getHeader(blockChain.getHeadHash());
+        int headTime = head.getTimeStamp();
+        difficulty = head.getDifficulty();
         if (blockChain.getSize() >= 120) {
-            int startTime = blockChain.getBlock(blockChain.getSize() - 121).getTimeStamp();
+            int startTime = blockChain.getHeader(blockChain.getSize() - 121).getTimeStamp();
 
             difficulty *= (TARGET_BLOCK_MINING_TIME * ADJUSTMENT_PERIOND) / (headTime - startTime);
         }
         else {
-            int startTime = blockChain.getBlock(0).getTimeStamp();
+            int startTime = blockChain.getHeader(0).getTimeStamp();
 
             difficulty *= (TARGET_BLOCK_MINING_TIME * blockChain.getSize()) / (headTime - startTime);
         }
@@ -101,10 +149,11 @@ public final class BlockChainManager extends Observable implements Observer {
 
     @Override
     public void update(Observable o, Object arg) {
-        if (o instanceof BlockChain) {
+        if (o instanceof BlockChain && arg instanceof BlockChainEvent) {
             BlockChain chain = (BlockChain) o;
-            if (chain.equals(blockChain)) {
-                if (blockChain.getSize() % 120 == 0) {
+            BlockChainEvent event = (BlockChainEvent) arg;
+            if (chain.equals(blockChain) && event.getType() == BlockChainEvent.Type.PUSHED) {
+                if (event.getSize() % 120 == 0) {
                     assessDifficulty();
                 }
             }
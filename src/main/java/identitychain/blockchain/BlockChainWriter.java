@@ -0,0 +1,62 @@
+package identitychain.blockchain;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves BlockChains on a single background thread.
+ *
+ * A BlockChain that is already waiting to be saved is not queued again, so a burst of pushed blocks results in one
+ * write of the latest state rather than one write per block.
+ */
+final class BlockChainWriter {
+    private static final Set<BlockChain> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "BlockChainWriter");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(BlockChainWriter::flush));
+    }
+
+    private BlockChainWriter() {
+
+    }
+
+    /**
+     * Save the BlockChain on the writer thread, unless it is already waiting to be saved.
+     *
+     * @param blockChain The BlockChain to save.
+     */
+    static void schedule(BlockChain blockChain) {
+        if (PENDING.add(blockChain)) {
+            WRITER.execute(() -> {
+
+                // Changes made from here on schedule another save.
+                PENDING.remove(blockChain);
+                blockChain.saveToFile();
+            });
+        }
+    }
+
+    /**
+     * Wait for every save scheduled so far to finish.
+     */
+    static void flush() {
+        try {
+            WRITER.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.merkle.MerkleTree;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.transaction.TransactionCodec;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of blocks, used by the BlockCache and when blocks are sent to other nodes.
+ *
+ * A block is the format version, the header written by Block.writeHeader(), the number of transactions, and then each
+ * transaction in the format of TransactionCodec. The merkle tree is rebuilt from the transactions when a block is
+ * decoded, and the hash is computed from the header bytes, so neither is stored.
+ */
+public final class BlockCodec {
+    public static final byte VERSION = 3;
+
+    private BlockCodec() {
+
+    }
+
+    public static byte[] encode(Block block) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+            block.writeHeader(header);
+
+            out.writeByte(VERSION);
+            out.write(header.array());
+
+            final List<Transaction> transactions = block.getTransactions();
+            Codec.writeVarLong(out, transactions.size());
+
+            for (Transaction transaction : transactions) {
+                TransactionCodec.write(out, transaction);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode a block, leaving the buffer positioned after it.
+     *
+     * @param in The buffer to read from, which may be a view of a mapped segment.
+     * @return The decoded block.
+     * @throws IOException If the buffer does not hold a well formed block, or the transactions do not match the
+     *                     merkle root in the header.
+     */
+    public static Block decode(ByteBuffer in) throws IOException {
+        final byte version = Codec.readByte(in);
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported block format version " + version);
+        }
+
+        if (in.remaining() < Block.HEADER_SIZE) {
+            throw new IOException("Block header is past the end of the buffer.");
+        }
+
+        try {
+            final ByteBuffer header = in.slice();
+            header.limit(Block.HEADER_SIZE);
+            in.position(in.position() + Block.HEADER_SIZE);
+
+            final BlockChainInt hash = Block.hashHeader(header.duplicate());
+            final BlockHeader blockHeader = BlockHeader.read(hash, header);
+
+            final int count = Codec.readLength(in);
+
+            if (count == 0) {
+                throw new IOException("Block " + hash + " has no transactions.");
+            }
+
+            final List<Transaction> transactions = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                transactions.add(TransactionCodec.read(in));
+            }
+
+            final MerkleTree merkleRoot = MerkleTreeBuilder.buildMerkleTree(transactions);
+
+            if (!merkleRoot.getHash().equals(blockHeader.getMerkleRootHash())) {
+                throw new IOException("Transactions of block " + hash + " do not match its merkle root.");
+            }
+
+            return new Block(
+                    hash,
+                    blockHeader.getPreviousBlockHash(),
+                    blockHeader.getTarget(),
+                    blockHeader.getNonce(),
+                    blockHeader.getTimeStamp(),
+                    merkleRoot
+            );
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Block is past the end of the buffer.", e);
+        }
+    }
+}
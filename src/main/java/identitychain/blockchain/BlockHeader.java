@@ -0,0 +1,92 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fields of a block that are covered by its hash, without its transactions.
+ *
+ * Headers are enough to walk a chain, compare chains and assess difficulty, so they are stored apart from the bodies
+ * and can be read without decoding any transactions.
+ */
+public final class BlockHeader {
+    private final BlockChainInt hash;
+    private final BlockChainInt previousBlockHash;
+    private final BlockChainInt target;
+    private final long nonce;
+    private final int time;
+    private final BlockChainInt merkleRootHash;
+
+    public BlockHeader(BlockChainInt hash,
+                       BlockChainInt previousBlockHash,
+                       BlockChainInt target,
+                       long nonce,
+                       int time,
+                       BlockChainInt merkleRootHash) {
+
+        this.hash = hash;
+        this.previousBlockHash = previousBlockHash;
+        this.target = target;
+        this.nonce = nonce;
+        this.time = time;
+        this.merkleRootHash = merkleRootHash;
+    }
+
+    /**
+     * Read a header written by write(), leaving the buffer positioned after it.
+     *
+     * @param hash The hash of the block, which is not part of the header bytes.
+     * @param buffer The buffer with at least Block.HEADER_SIZE bytes remaining.
+     * @return The header.
+     */
+    public static BlockHeader read(BlockChainInt hash, ByteBuffer buffer) {
+        final BlockChainInt previousBlockHash = BlockChainInt.read(buffer, BlockChainInt.HASH_BYTES);
+        final BlockChainInt target = BlockChainInt.read(buffer, BlockChainInt.BYTES);
+        final int time = buffer.getInt();
+        final BlockChainInt merkleRootHash = BlockChainInt.read(buffer, BlockChainInt.HASH_BYTES);
+        final long nonce = buffer.getLong();
+
+        return new BlockHeader(hash, previousBlockHash, target, nonce, time, merkleRootHash);
+    }
+
+    /**
+     * Write the header in the format that the hash of the block is computed from.
+     *
+     * @param buffer The buffer to write to, with at least Block.HEADER_SIZE bytes remaining.
+     */
+    public void write(ByteBuffer buffer) {
+        Block.writeHeader(buffer, previousBlockHash, target, nonce, time, merkleRootHash);
+    }
+
+    /**
+     * Get how many times harder this block was to mine than a block at the maximum target.
+     */
+    public double getDifficulty() {
+        return BlockChainInt.MAX_TARGET.doubleValue() / target.doubleValue();
+    }
+
+    public BlockChainInt getHash() {
+        return hash;
+    }
+
+    public BlockChainInt getPreviousBlockHash() {
+        return previousBlockHash;
+    }
+
+    public BlockChainInt getTarget() {
+        return target;
+    }
+
+    public long getNonce() {
+        return nonce;
+    }
+
+    public int getTimeStamp() {
+        return time;
+    }
+
+    public BlockChainInt getMerkleRootHash() {
+        return merkleRootHash;
+    }
+}
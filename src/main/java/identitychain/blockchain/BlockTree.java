@@ -0,0 +1,226 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.storage.HeaderStore;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every block stored in a directory, linked to its parent, with the total difficulty of the chain ending at it.
+ *
+ * A block is only stored after a BlockChain has accepted it, so the tree holds every known valid block, whichever
+ * branch it is on. The tip with the most work is tracked as blocks are added, so choosing between competing
+ * BlockChains is a comparison of two nodes rather than a walk of either chain. The tree is built from the HeaderStore
+ * when it is first used, and kept in memory.
+ */
+public final class BlockTree {
+    private static final Map<String, BlockTree> TREES = new HashMap<>();
+
+    private final Map<BlockChainInt, Node> nodes = new HashMap<>();
+    private Node best;
+
+    public static final class Node {
+        private final BlockChainInt hash;
+        private final Node parent;
+        private final long height;
+        private final double work;
+        private boolean invalid = false;
+
+        private Node(BlockChainInt hash, Node parent, double difficulty) {
+            this.hash = hash;
+            this.parent = parent;
+            this.height = parent != null ? parent.height + 1 : 0;
+            this.work = parent != null ? parent.work + difficulty : difficulty;
+        }
+
+        public BlockChainInt getHash() {
+            return hash;
+        }
+
+        /**
+         * @return The parent of the block, or null if it is the first block of a chain.
+         */
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * Get the sequence number the block has in any BlockChain that includes it.
+         */
+        public long getHeight() {
+            return height;
+        }
+
+        /**
+         * Get the total difficulty of the chain ending at this block.
+         */
+        public double getWork() {
+            return work;
+        }
+
+        /**
+         * @return If this block, or one before it, could not be connected to a BlockChain.
+         */
+        public boolean isInvalid() {
+            return invalid;
+        }
+    }
+
+    private BlockTree() {
+
+    }
+
+    /**
+     * Get the tree for the given directory, building it from the stored headers if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The BlockTree for the directory.
+     */
+    public static BlockTree getBlockTree(File directory) {
+        synchronized (TREES) {
+            if (!TREES.containsKey(directory.getAbsolutePath())) {
+                final BlockTree tree = new BlockTree();
+                final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+                // A block is always stored after its parent, so each header can be linked as it is read.
+                if (headers != null) {
+                    final long size = headers.size();
+
+                    for (long slot = 0; slot < size; slot++) {
+                        tree.add(headers.get(slot));
+                    }
+                }
+
+                TREES.put(directory.getAbsolutePath(), tree);
+            }
+
+            return TREES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Add a block whose parent is already in the tree, or which is the first block of a chain.
+     *
+     * @param header The header of the block.
+     * @return The node of the block, or null if its parent is unknown.
+     */
+    public synchronized Node add(BlockHeader header) {
+        final Node existing = nodes.get(header.getHash());
+
+        if (existing != null) {
+            return existing;
+        }
+
+        final Node parent = nodes.get(header.getPreviousBlockHash());
+
+        if (parent == null && !header.getPreviousBlockHash().equals(BlockChainInt.ZERO)) {
+            return null;
+        }
+
+        final Node node = new Node(header.getHash(), parent, header.getDifficulty());
+        node.invalid = parent != null && parent.invalid;
+        nodes.put(node.hash, node);
+
+        // Ties keep the tip that was seen first, so competing tips of equal work do not cause reorganizations.
+        if (!node.invalid && (best == null || node.work > best.work)) {
+            best = node;
+        }
+
+        return node;
+    }
+
+    public synchronized Node get(BlockChainInt hash) {
+        return nodes.get(hash);
+    }
+
+    /**
+     * Get the valid tip with the most work.
+     *
+     * @return The best tip, or null if the tree is empty.
+     */
+    public synchronized Node getBestTip() {
+        return best;
+    }
+
+    /**
+     * Mark a block, and every block after it, as unable to be connected, and choose the best tip again.
+     *
+     * This walks the whole tree, which is only needed when a branch turns out to be invalid.
+     *
+     * @param hash The hash of the block that was rejected.
+     */
+    public synchronized void invalidate(BlockChainInt hash) {
+        final Node rejected = nodes.get(hash);
+
+        if (rejected == null) {
+            return;
+        }
+
+        rejected.invalid = true;
+        best = null;
+
+        for (Node node : nodes.values()) {
+            if (!node.invalid && descendsFrom(node, rejected)) {
+                node.invalid = true;
+            }
+        }
+
+        for (Node node : nodes.values()) {
+            if (!node.invalid && (best == null || node.work > best.work)) {
+                best = node;
+            }
+        }
+    }
+
+    /**
+     * Find the last block that two branches have in common.
+     *
+     * @return The common ancestor, or null if the branches start from different first blocks.
+     */
+    public static Node getCommonAncestor(Node first, Node second) {
+        while (first != null && second != null && first != second) {
+            if (first.height > second.height) {
+                first = first.parent;
+            } else if (second.height > first.height) {
+                second = second.parent;
+            } else {
+                first = first.parent;
+                second = second.parent;
+            }
+        }
+
+        return first == second ? first : null;
+    }
+
+    /**
+     * List the hashes of the blocks after an ancestor, up to and including a tip.
+     *
+     * @param ancestor The last block before the branch, or null to list the whole chain of the tip.
+     * @param tip The last block of the branch.
+     * @return The hashes in the order the blocks must be connected.
+     */
+    public static List<BlockChainInt> getBranch(Node ancestor, Node tip) {
+        final List<BlockChainInt> branch = new ArrayList<>();
+
+        for (Node node = tip; node != null && node != ancestor; node = node.parent) {
+            branch.add(node.hash);
+        }
+
+        Collections.reverse(branch);
+
+        return branch;
+    }
+
+    private static boolean descendsFrom(Node node, Node ancestor) {
+        while (node != null && node.height > ancestor.height) {
+            node = node.parent;
+        }
+
+        return node == ancestor;
+    }
+}
@@ -0,0 +1,49 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.File;
+
+/**
+ * State derived from the blocks of a BlockChain, which is updated as blocks are pushed and disconnected rather than
+ * computed by walking the chain.
+ *
+ * The state of the primary BlockChain is written to a file when the BlockChain is saved, along with the number of
+ * blocks it includes and the hash of the last one, so a restart only applies the blocks pushed since then.
+ *
+ * @param <T> The type of the state, which overlay() returns.
+ */
+interface ChainState<T extends ChainState<T>> {
+
+    /**
+     * Get the number of blocks the state includes.
+     */
+    long size();
+
+    /**
+     * Get the hash of the last block the state includes.
+     */
+    BlockChainInt getHead();
+
+    /**
+     * Include the block pushed after the last one included.
+     */
+    void apply(Block block);
+
+    /**
+     * Remove the last block included, using the record of what connecting it changed.
+     */
+    void revert(UndoRecord undo);
+
+    /**
+     * Create a state that starts out the same as this one, and keeps only the changes made to it after that, reading
+     * everything else from this state. This state hands its old values to the overlay before changing them, so
+     * neither sees the other's later changes, and creating an overlay copies nothing.
+     */
+    T overlay();
+
+    /**
+     * Write a snapshot of the state to a temporary file which then replaces the given file.
+     */
+    void write(File file);
+}
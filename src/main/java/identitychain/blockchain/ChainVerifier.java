@@ -0,0 +1,249 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.merkle.MerkleTree;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Checks every block of a BlockChain from the first one, without trusting anything checked when it was pushed.
+ *
+ * This is for audits and for loading a directory that came from somewhere else, where isValid() is not enough since
+ * it trusts the blocks below the validated mark. Blocks are checked in windows of WINDOW_SIZE. The checks that only
+ * depend on the block itself, which are the proof of work, the merkle root, the coinbase and the signatures of the
+ * other transactions, are split across a ForkJoinPool. The checks that depend on the order of the blocks, which are
+ * that each block links to the one before it, that the time stamps do not decrease and that no wallet is left with a
+ * negative balance, are then made over the window in order.
+ */
+public final class ChainVerifier {
+    public static final int WINDOW_SIZE = 1024;
+
+    private static final int BLOCKS_PER_TASK = 8;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * The result of verifying a BlockChain.
+     */
+    public static final class Report {
+        private final boolean valid;
+        private final long failedHeight;
+        private final long blocks;
+        private final long transactions;
+        private final long elapsedNanos;
+
+        private Report(boolean valid, long failedHeight, long blocks, long transactions, long elapsedNanos) {
+            this.valid = valid;
+            this.failedHeight = failedHeight;
+            this.blocks = blocks;
+            this.transactions = transactions;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Get the height of the first block that failed a check.
+         *
+         * @return The height, or -1 if every block passed.
+         */
+        public long getFailedHeight() {
+            return failedHeight;
+        }
+
+        /**
+         * Get the number of blocks checked, which stops at the first block that failed.
+         */
+        public long getBlocks() {
+            return blocks;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getBlocksPerSecond() {
+            return elapsedNanos > 0 ? blocks / (elapsedNanos / 1e9) : 0.0;
+        }
+
+        public double getTransactionsPerSecond() {
+            return elapsedNanos > 0 ? transactions / (elapsedNanos / 1e9) : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: %d blocks, %d transactions in %.3f s (%.1f blocks/s, %.1f tx/s)%s",
+                    valid ? "Valid" : "Invalid",
+                    blocks,
+                    transactions,
+                    elapsedNanos / 1e9,
+                    getBlocksPerSecond(),
+                    getTransactionsPerSecond(),
+                    valid ? "" : ", first invalid block at height " + failedHeight
+            );
+        }
+    }
+
+    public ChainVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ChainVerifier(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Check every block of the BlockChain, up to its size when the check starts.
+     *
+     * @param blockChain The BlockChain to check.
+     * @return The outcome, with the throughput of the check.
+     */
+    public Report verify(BlockChain blockChain) {
+        final long start = System.nanoTime();
+        final long size = blockChain.getSize();
+        final Map<PublicKey, Long> balances = new HashMap<>();
+
+        BlockChainInt previousHash = BlockChainInt.ZERO;
+        int lastTime = Integer.MIN_VALUE;
+        long transactions = 0;
+
+        for (long windowStart = 0; windowStart < size; windowStart += WINDOW_SIZE) {
+            final int windowSize = (int) Math.min(WINDOW_SIZE, size - windowStart);
+            final Block[] blocks = new Block[windowSize];
+
+            final int failed = pool.invoke(new CheckBlocks(blockChain, windowStart, blocks, 0, windowSize));
+            final int end = failed >= 0 ? failed : windowSize;
+
+            for (int i = 0; i < end; i++) {
+                final Block block = blocks[i];
+
+                if (!block.getPreviousBlockHash().equals(previousHash) || block.getTimeStamp() < lastTime
+                        || !applyEffects(balances, block)) {
+
+                    return report(false, windowStart + i, windowStart + i, transactions, start);
+                }
+
+                previousHash = block.getHash();
+                lastTime = block.getTimeStamp();
+                transactions += block.getTransactions().size();
+            }
+
+            if (failed >= 0) {
+                return report(false, windowStart + failed, windowStart + failed, transactions, start);
+            }
+        }
+
+        return report(true, -1, size, transactions, start);
+    }
+
+    private static Report report(boolean valid, long failedHeight, long blocks, long transactions, long start) {
+        return new Report(valid, failedHeight, blocks, transactions, System.nanoTime() - start);
+    }
+
+    /**
+     * Add the block's effects to the balances.
+     *
+     * @return If every wallet the block takes from still has a balance of at least zero.
+     */
+    private static boolean applyEffects(Map<PublicKey, Long> balances, Block block) {
+        boolean valid = true;
+
+        for (Map.Entry<PublicKey, Long> entry : block.getEffects().entrySet()) {
+            final long balance = balances.merge(entry.getKey(), entry.getValue(), (x, y) -> x + y);
+
+            if (balance < 0) {
+                valid = false;
+            }
+        }
+
+        return valid;
+    }
+
+    /**
+     * Check that a block is solved, that its merkle root matches its transactions, that its coinbase pays the reward
+     * and fees, and that every other transaction is signed.
+     */
+    private static boolean checkBlock(Block block) {
+        if (block == null || !block.isValid() || !block.verifyCoinbase()) {
+            return false;
+        }
+
+        final List<Transaction> transactions = block.getTransactions();
+        final MerkleTree merkleRoot = MerkleTreeBuilder.buildMerkleTree(transactions);
+
+        if (merkleRoot == null || !merkleRoot.getHash().equals(block.getHeader().getMerkleRootHash())) {
+            return false;
+        }
+
+        // The coinbase pays out more than it takes in, so it is checked by verifyCoinbase() rather than isValid().
+        for (int i = 1; i < transactions.size(); i++) {
+            if (!transactions.get(i).isValid()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Load and check a range of a window's blocks, splitting the range until it is small enough to check directly.
+     *
+     * The result is the position in the window of the first block that failed, or -1.
+     */
+    private static final class CheckBlocks extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final BlockChain blockChain;
+        private final long windowStart;
+        private final Block[] blocks;
+        private final int from;
+        private final int to;
+
+        private CheckBlocks(BlockChain blockChain, long windowStart, Block[] blocks, int from, int to) {
+            this.blockChain = blockChain;
+            this.windowStart = windowStart;
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= BLOCKS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    blocks[i] = blockChain.getBlock(windowStart + i, false);
+
+                    if (!checkBlock(blocks[i])) {
+                        return i;
+                    }
+                }
+
+                return -1;
+            }
+
+            final int middle = (from + to) >>> 1;
+            final CheckBlocks left = new CheckBlocks(blockChain, windowStart, blocks, from, middle);
+            final CheckBlocks right = new CheckBlocks(blockChain, windowStart, blocks, middle, to);
+
+            right.fork();
+            final int leftFailed = left.compute();
+            final int rightFailed = right.join();
+
+            return leftFailed >= 0 ? leftFailed : rightFailed;
+        }
+    }
+}
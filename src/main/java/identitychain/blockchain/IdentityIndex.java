@@ -0,0 +1,432 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.transaction.IdentityEntry;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.transaction.TransactionCodec;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.NameTrie;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * The IdentityEntries of one BlockChain, by name and by public key, updated as blocks are pushed and disconnected.
+ *
+ * Each list keeps the entries in the order they were added to the chain, so the latest entry for a key is the last
+ * one. The names are also kept in a NameTrie for prefix and approximate searches. The index of the primary
+ * BlockChain is checkpointed to IDCIdentities.dat.
+ *
+ * The index of a fork is an overlay on the index of the BlockChain it forked, and only holds the lists it has changed,
+ * with an empty list for a name or key it has none of. Every other list is read from the parent, which copies a list
+ * into its overlays before changing it, so neither sees the other's later changes. An index and its overlays share
+ * one lock, so a lookup never sees a list halfway through being copied.
+ */
+final class IdentityIndex implements ChainState<IdentityIndex> {
+    private static final byte VERSION = 1;
+
+    private final IdentityIndex parent;
+    private final Object lock;
+    private final Map<String, List<IdentityEntry>> byName;
+    private final Map<PublicKey, List<IdentityEntry>> byKey;
+    private final NameTrie names = new NameTrie();
+    private final List<WeakReference<IdentityIndex>> overlays = new ArrayList<>();
+    private long size;
+    private BlockChainInt head;
+
+    IdentityIndex() {
+        this(null, new HashMap<>(), new HashMap<>(), 0, BlockChainInt.ZERO);
+    }
+
+    private IdentityIndex(IdentityIndex parent,
+                          Map<String, List<IdentityEntry>> byName,
+                          Map<PublicKey, List<IdentityEntry>> byKey,
+                          long size,
+                          BlockChainInt head) {
+
+        this.parent = parent;
+        this.lock = parent != null ? parent.lock : new Object();
+        this.byName = byName;
+        this.byKey = byKey;
+        this.size = size;
+        this.head = head;
+
+        byName.forEach((name, entries) -> entries.forEach(entry -> names.add(name)));
+    }
+
+    @Override
+    public IdentityIndex overlay() {
+        synchronized (lock) {
+            final IdentityIndex overlay = new IdentityIndex(this, new HashMap<>(), new HashMap<>(), size, head);
+            overlays.add(new WeakReference<>(overlay));
+
+            return overlay;
+        }
+    }
+
+    Set<IdentityEntry> getAllWithName(String name) {
+        synchronized (lock) {
+            final List<IdentityEntry> entries = getByName(name);
+
+            return entries != null ? new HashSet<>(entries) : new HashSet<>();
+        }
+    }
+
+    /**
+     * Find the names that start with the given prefix.
+     *
+     * @return At most limit names, in character order.
+     */
+    List<String> findNamesWithPrefix(String prefix, int limit) {
+        synchronized (lock) {
+            final TreeSet<String> found = new TreeSet<>(names.findWithPrefix(prefix, limit));
+
+            // The names this index has its own lists for are in its own trie, so the parent's are skipped. At most
+            // that many of the parent's names are skipped, so asking for that many more still finds enough.
+            if (parent != null) {
+                for (String name : parent.findNamesWithPrefix(prefix, limit + byName.size())) {
+                    if (!byName.containsKey(name)) {
+                        found.add(name);
+                    }
+                }
+            }
+
+            final List<String> result = new ArrayList<>(limit);
+            for (String name : found) {
+                if (result.size() >= limit) {
+                    break;
+                }
+
+                result.add(name);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Find the names within the given edit distance of a name.
+     *
+     * @return At most limit names, closest first.
+     */
+    List<NameTrie.Match> findSimilarNames(String name, int maxDistance, int limit) {
+        synchronized (lock) {
+            final List<NameTrie.Match> found = new ArrayList<>(names.findSimilar(name, maxDistance, limit));
+
+            if (parent == null) {
+                return found;
+            }
+
+            for (NameTrie.Match match : parent.findSimilarNames(name, maxDistance, limit + byName.size())) {
+                if (!byName.containsKey(match.getName())) {
+                    found.add(match);
+                }
+            }
+
+            found.sort(Comparator.comparingInt(NameTrie.Match::getDistance).thenComparing(NameTrie.Match::getName));
+
+            return found.size() > limit ? new ArrayList<>(found.subList(0, limit)) : found;
+        }
+    }
+
+    /**
+     * Get the latest IdentityEntry for the given key.
+     *
+     * @return The entry, or null if the key has none.
+     */
+    IdentityEntry get(PublicKey key) {
+        synchronized (lock) {
+            final List<IdentityEntry> entries = getByKey(key);
+
+            return entries != null && !entries.isEmpty() ? entries.get(entries.size() - 1) : null;
+        }
+    }
+
+    @Override
+    public long size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    @Override
+    public BlockChainInt getHead() {
+        synchronized (lock) {
+            return head;
+        }
+    }
+
+    @Override
+    public void apply(Block block) {
+        synchronized (lock) {
+            for (Transaction transaction : block.getTransactions()) {
+                if (transaction instanceof IdentityEntry) {
+                    add((IdentityEntry) transaction);
+                }
+            }
+
+            size++;
+            head = block.getHash();
+        }
+    }
+
+    @Override
+    public void revert(UndoRecord undo) {
+        synchronized (lock) {
+            final List<IdentityEntry> entries = undo.getIdentities();
+
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                final IdentityEntry entry = entries.get(i);
+
+                if (removeLast(editByName(entry.getName()), entry)) {
+                    names.remove(entry.getName());
+                }
+
+                removeLast(editByKey(entry.getPublicKey()), entry);
+
+                // Only an overlay needs an empty list, to hide the parent's.
+                if (parent == null) {
+                    removeIfEmpty(byName, entry.getName());
+                    removeIfEmpty(byKey, entry.getPublicKey());
+                }
+            }
+
+            size--;
+            head = size > 0 ? undo.getPreviousBlockHash() : BlockChainInt.ZERO;
+        }
+    }
+
+    @Override
+    public void write(File file) {
+        final Map<PublicKey, List<IdentityEntry>> byKey = new HashMap<>();
+        final long size;
+        final BlockChainInt head;
+
+        synchronized (lock) {
+            collectByKey(byKey);
+            size = this.size;
+            head = this.head;
+        }
+
+        final File temp = new File(file.getAbsolutePath() + ".tmp");
+
+        try (FileOutputStream fileOut = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(fileOut)) {
+
+            out.writeByte(VERSION);
+            Codec.writeHash(out, head);
+            Codec.writeVarLong(out, size);
+
+            // Every entry is listed under its key, in order, so the name lists are rebuilt from the key lists.
+            int count = 0;
+            for (List<IdentityEntry> entries : byKey.values()) {
+                count += entries.size();
+            }
+
+            Codec.writeVarLong(out, count);
+
+            for (List<IdentityEntry> entries : byKey.values()) {
+                for (IdentityEntry entry : entries) {
+                    TransactionCodec.write(out, entry);
+                }
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            Files.move(
+                    temp.toPath(),
+                    file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read an index written by write().
+     *
+     * The order of entries with the same name but different keys is not kept, which getAllWithName() does not
+     * depend on.
+     *
+     * @return The index, or null if the file does not exist or is not well formed.
+     */
+    static IdentityIndex read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            final byte version = Codec.readByte(in);
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported identity format version " + version);
+            }
+
+            final BlockChainInt head = Codec.readHash(in);
+            final long size = Codec.readVarLong(in);
+            final int count = Codec.readLength(in);
+            final IdentityIndex index = new IdentityIndex(null, new HashMap<>(), new HashMap<>(), size, head);
+
+            for (int i = 0; i < count; i++) {
+                final Transaction transaction = TransactionCodec.read(in);
+
+                if (!(transaction instanceof IdentityEntry)) {
+                    throw new IOException("Identity index holds a transaction that is not an IdentityEntry.");
+                }
+
+                index.add((IdentityEntry) transaction);
+            }
+
+            return index;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private void add(IdentityEntry entry) {
+        editByName(entry.getName()).add(entry);
+        editByKey(entry.getPublicKey()).add(entry);
+        names.add(entry.getName());
+    }
+
+    private List<IdentityEntry> getByName(String name) {
+        final List<IdentityEntry> entries = byName.get(name);
+
+        return entries != null || parent == null ? entries : parent.getByName(name);
+    }
+
+    private List<IdentityEntry> getByKey(PublicKey key) {
+        final List<IdentityEntry> entries = byKey.get(key);
+
+        return entries != null || parent == null ? entries : parent.getByKey(key);
+    }
+
+    /**
+     * Get this index's own list of the entries with the name, to change it, once every overlay has its own copy.
+     */
+    private List<IdentityEntry> editByName(String name) {
+        forEachOverlay(overlay -> overlay.ownByName(name));
+
+        return ownByName(name);
+    }
+
+    private List<IdentityEntry> editByKey(PublicKey key) {
+        forEachOverlay(overlay -> overlay.ownByKey(key));
+
+        return ownByKey(key);
+    }
+
+    /**
+     * Get this index's own list of the entries with the name, copying the parent's list if it has none yet.
+     */
+    private List<IdentityEntry> ownByName(String name) {
+        List<IdentityEntry> entries = byName.get(name);
+
+        if (entries == null) {
+            final List<IdentityEntry> inherited = parent != null ? parent.getByName(name) : null;
+
+            entries = inherited != null ? new ArrayList<>(inherited) : new ArrayList<>();
+            entries.forEach(entry -> names.add(name));
+            byName.put(name, entries);
+        }
+
+        return entries;
+    }
+
+    private List<IdentityEntry> ownByKey(PublicKey key) {
+        List<IdentityEntry> entries = byKey.get(key);
+
+        if (entries == null) {
+            final List<IdentityEntry> inherited = parent != null ? parent.getByKey(key) : null;
+
+            entries = inherited != null ? new ArrayList<>(inherited) : new ArrayList<>();
+            byKey.put(key, entries);
+        }
+
+        return entries;
+    }
+
+    private void forEachOverlay(Consumer<IdentityIndex> action) {
+        final Iterator<WeakReference<IdentityIndex>> iterator = overlays.iterator();
+
+        while (iterator.hasNext()) {
+            final IdentityIndex overlay = iterator.next().get();
+
+            if (overlay == null) {
+                iterator.remove();
+            } else {
+                action.accept(overlay);
+            }
+        }
+    }
+
+    /**
+     * Put every non-empty list of entries by key into the map, with this index's own lists replacing its parent's.
+     */
+    private void collectByKey(Map<PublicKey, List<IdentityEntry>> into) {
+        if (parent != null) {
+            parent.collectByKey(into);
+        }
+
+        byKey.forEach((key, entries) -> {
+            if (entries.isEmpty()) {
+                into.remove(key);
+            } else {
+                into.put(key, new ArrayList<>(entries));
+            }
+        });
+    }
+
+    /**
+     * Remove the last occurrence of the entry from the list.
+     *
+     * @return If the entry was found.
+     */
+    private static boolean removeLast(List<IdentityEntry> entries, IdentityEntry entry) {
+        for (ListIterator<IdentityEntry> it = entries.listIterator(entries.size()); it.hasPrevious(); ) {
+            if (it.previous().equals(entry)) {
+                it.remove();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static <K> void removeIfEmpty(Map<K, List<IdentityEntry>> index, K key) {
+        final List<IdentityEntry> entries = index.get(key);
+
+        if (entries != null && entries.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
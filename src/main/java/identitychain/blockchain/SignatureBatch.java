@@ -0,0 +1,124 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks every signature in a run of blocks on a shared, bounded pool of worker threads.
+ *
+ * The signatures of all the blocks are collected, split into one share per worker, and checked through the
+ * SignatureCache, and every share is joined before verify() returns. The caller then applies the blocks in order, and
+ * the transaction checks made while doing so find each signature in the cache rather than checking it again.
+ */
+public final class SignatureBatch {
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, runnable -> {
+        final Thread thread = new Thread(runnable, "SignatureBatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SignatureBatch() {
+
+    }
+
+    /**
+     * One signature of one transaction, and the position of its block in the batch.
+     */
+    private static final class Check {
+        private final int block;
+        private final Transaction transaction;
+        private final int index;
+
+        private Check(int block, Transaction transaction, int index) {
+            this.block = block;
+            this.transaction = transaction;
+            this.index = index;
+        }
+    }
+
+    public static int verify(Block block) {
+        return verify(Collections.singletonList(block));
+    }
+
+    /**
+     * Check the signatures of every transaction in the blocks.
+     *
+     * @param blocks The blocks, in the order they will be applied.
+     * @return The position of the first block with a signature that is not valid, or -1 if every signature is. If the
+     *         check is interrupted, the first block is treated as not valid.
+     */
+    public static int verify(List<Block> blocks) {
+        final List<Check> checks = new ArrayList<>();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            for (Transaction transaction : blocks.get(i).getTransactions()) {
+                for (int index = 0; index < transaction.getSignatureCount(); index++) {
+                    checks.add(new Check(i, transaction, index));
+                }
+            }
+        }
+
+        // A handful of signatures is not worth handing to another thread.
+        if (checks.size() <= 1 || WORKERS == 1) {
+            return check(checks, 0, checks.size());
+        }
+
+        final int shares = Math.min(WORKERS, checks.size());
+        final List<Future<Integer>> results = new ArrayList<>(shares);
+
+        for (int share = 0; share < shares; share++) {
+            final int from = (int) ((long) checks.size() * share / shares);
+            final int to = (int) ((long) checks.size() * (share + 1) / shares);
+
+            results.add(POOL.submit((Callable<Integer>) () -> check(checks, from, to)));
+        }
+
+        int failed = -1;
+
+        for (Future<Integer> result : results) {
+            try {
+                final int block = result.get();
+
+                if (block >= 0 && (failed < 0 || block < failed)) {
+                    failed = block;
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Thread.currentThread().interrupt();
+                return 0;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                return 0;
+            }
+        }
+
+        return failed;
+    }
+
+    /**
+     * Check a range of the signatures, stopping at the first one that is not valid.
+     *
+     * @return The position of the block of that signature, or -1.
+     */
+    private static int check(List<Check> checks, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final Check check = checks.get(i);
+
+            if (!check.transaction.verifySignature(check.index)) {
+                return check.block;
+            }
+        }
+
+        return -1;
+    }
+}
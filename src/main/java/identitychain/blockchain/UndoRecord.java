@@ -0,0 +1,166 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.transaction.IdentityEntry;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.transaction.TransactionCodec;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What connecting a block changed, so the block can be disconnected without decoding it again.
+ *
+ * The record holds the change to each balance, the IdentityEntries the block added and the hashes of its
+ * transactions, so disconnecting a block takes time in proportion to the size of the block rather than of the chain.
+ * A record is written to the UndoStore when its block is first stored.
+ */
+final class UndoRecord {
+    private static final byte VERSION = 1;
+
+    private final BlockChainInt hash;
+    private final BlockChainInt previousBlockHash;
+    private final Map<PublicKey, Long> effects;
+    private final List<IdentityEntry> identities;
+    private final List<BlockChainInt> transactionHashes;
+
+    private UndoRecord(BlockChainInt hash,
+                       BlockChainInt previousBlockHash,
+                       Map<PublicKey, Long> effects,
+                       List<IdentityEntry> identities,
+                       List<BlockChainInt> transactionHashes) {
+
+        this.hash = hash;
+        this.previousBlockHash = previousBlockHash;
+        this.effects = effects;
+        this.identities = identities;
+        this.transactionHashes = transactionHashes;
+    }
+
+    static UndoRecord of(Block block) {
+        final List<IdentityEntry> identities = new ArrayList<>();
+        final List<BlockChainInt> transactionHashes = new ArrayList<>();
+
+        for (Transaction transaction : block.getTransactions()) {
+            if (transaction instanceof IdentityEntry) {
+                identities.add((IdentityEntry) transaction);
+            }
+
+            transactionHashes.add(transaction.getHash());
+        }
+
+        return new UndoRecord(
+                block.getHash(),
+                block.getPreviousBlockHash(),
+                block.getEffects(),
+                identities,
+                transactionHashes
+        );
+    }
+
+    BlockChainInt getHash() {
+        return hash;
+    }
+
+    BlockChainInt getPreviousBlockHash() {
+        return previousBlockHash;
+    }
+
+    /**
+     * Get the change the block made to each balance.
+     */
+    Map<PublicKey, Long> getEffects() {
+        return Collections.unmodifiableMap(effects);
+    }
+
+    /**
+     * Get the IdentityEntries of the block, in the order they were added.
+     */
+    List<IdentityEntry> getIdentities() {
+        return Collections.unmodifiableList(identities);
+    }
+
+    List<BlockChainInt> getTransactionHashes() {
+        return Collections.unmodifiableList(transactionHashes);
+    }
+
+    byte[] encode() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            Codec.writeHash(out, hash);
+            Codec.writeHash(out, previousBlockHash);
+
+            Codec.writeVarLong(out, effects.size());
+            for (Map.Entry<PublicKey, Long> entry : effects.entrySet()) {
+                Codec.writePublicKey(out, entry.getKey());
+                Codec.writeSignedVarLong(out, entry.getValue());
+            }
+
+            Codec.writeVarLong(out, identities.size());
+            for (IdentityEntry entry : identities) {
+                TransactionCodec.write(out, entry);
+            }
+
+            Codec.writeVarLong(out, transactionHashes.size());
+            for (BlockChainInt transactionHash : transactionHashes) {
+                Codec.writeHash(out, transactionHash);
+            }
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read a record written by encode().
+     *
+     * @throws IOException If the bytes are not a well formed record.
+     */
+    static UndoRecord decode(byte[] bytes) throws IOException {
+        final ByteBuffer in = ByteBuffer.wrap(bytes);
+        final byte version = Codec.readByte(in);
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported undo record version " + version);
+        }
+
+        final BlockChainInt hash = Codec.readHash(in);
+        final BlockChainInt previousBlockHash = Codec.readHash(in);
+
+        final int effectCount = Codec.readLength(in);
+        final Map<PublicKey, Long> effects = new HashMap<>();
+        for (int i = 0; i < effectCount; i++) {
+            effects.put(Codec.readPublicKey(in), Codec.readSignedVarLong(in));
+        }
+
+        final int identityCount = Codec.readLength(in);
+        final List<IdentityEntry> identities = new ArrayList<>(identityCount);
+        for (int i = 0; i < identityCount; i++) {
+            final Transaction transaction = TransactionCodec.read(in);
+
+            if (!(transaction instanceof IdentityEntry)) {
+                throw new IOException("Undo record holds a transaction that is not an IdentityEntry.");
+            }
+
+            identities.add((IdentityEntry) transaction);
+        }
+
+        final int hashCount = Codec.readLength(in);
+        final List<BlockChainInt> transactionHashes = new ArrayList<>(hashCount);
+        for (int i = 0; i < hashCount; i++) {
+            transactionHashes.add(Codec.readHash(in));
+        }
+
+        return new UndoRecord(hash, previousBlockHash, effects, identities, transactionHashes);
+    }
+}
@@ -2,10 +2,10 @@ package identitychain.blockchain.merkle;
 
 import identitychain.blockchain.transaction.Transaction;
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Hashing;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.List;
 
 public class MerkleNode implements MerkleTree {
@@ -20,6 +20,14 @@ public class MerkleNode implements MerkleTree {
     }
 
 
+    public MerkleTree getLeft() {
+        return left;
+    }
+
+    public MerkleTree getRight() {
+        return right;
+    }
+
     @Override
     public BlockChainInt getHash() {
         return hash;
@@ -34,17 +42,14 @@ public class MerkleNode implements MerkleTree {
     }
 
     private BlockChainInt computeHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
-
-            hash.update(left.getHash().toByteArray());
-            hash.update(right.getHash().toByteArray());
+        // Both are found before the digest is taken, since a child that is a transaction may compute its hash with it.
+        final BlockChainInt leftHash = left.getHash();
+        final BlockChainInt rightHash = right.getHash();
+        final MessageDigest hash = Hashing.getDigest();
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
+        Hashing.update(hash, leftHash);
+        Hashing.update(hash, rightHash);
 
-        return BlockChainInt.ZERO;
+        return Hashing.digest(hash);
     }
 }
@@ -15,7 +15,7 @@ public final class MerkleTreeBuilder {
         while (lastLayer.size() > 1) {
             final Queue<MerkleTree> curLayer = new LinkedList<>();
             while (lastLayer.size() > 1) {
-                curLayer.add(new MerkleNode(lastLayer.peek(), lastLayer.poll()));
+                curLayer.add(new MerkleNode(lastLayer.poll(), lastLayer.poll()));
             }
 
             if (lastLayer.size() > 0) {
@@ -0,0 +1,117 @@
+package identitychain.blockchain.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The HeaderStore slot of the block at each height of one BlockChain, stored in a memory-mapped file.
+ *
+ * The file starts with the number of heights in use, followed by one slot per height.
+ */
+public final class AddressTable implements SlotTable {
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int GROWTH = 1 << 16;
+
+    // A MappedByteBuffer holds at most Integer.MAX_VALUE bytes.
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / Long.BYTES;
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private int capacity;
+    private long size;
+
+    private AddressTable(File file) throws IOException {
+        this.file = file;
+
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        map(Math.max(GROWTH, (channel.size() - HEADER_SIZE) / Long.BYTES));
+        size = table.getLong(0);
+    }
+
+    public static AddressTable open(File file) throws IOException {
+        return new AddressTable(file);
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized long get(long height) {
+        if (height < 0 || height >= size) {
+            return -1;
+        }
+
+        return table.getLong(getPosition(height));
+    }
+
+    @Override
+    public synchronized void set(long height, long address) throws IOException {
+        if (height > size) {
+            throw new IOException("Height " + height + " is past the end of " + file);
+        }
+
+        if (height >= capacity) {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IOException(file + " cannot hold more than " + MAX_CAPACITY + " heights");
+            }
+
+            map(Math.min(capacity + GROWTH, MAX_CAPACITY));
+        }
+
+        table.putLong(getPosition(height), address);
+        size = height + 1;
+        table.putLong(0, size);
+    }
+
+    @Override
+    public synchronized void truncate(long size) {
+        if (size < this.size) {
+            this.size = Math.max(0, size);
+            table.putLong(0, this.size);
+        }
+    }
+
+    public synchronized void force() {
+        table.force();
+    }
+
+    /**
+     * Close the table and delete its file.
+     */
+    public synchronized void delete() {
+        size = 0;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        file.delete();
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > MAX_CAPACITY) {
+            throw new IOException(file + " cannot hold more than " + MAX_CAPACITY + " heights");
+        }
+
+        this.capacity = (int) capacity;
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * Long.BYTES);
+    }
+
+    private static int getPosition(long height) {
+        return Math.toIntExact(HEADER_SIZE + height * Long.BYTES);
+    }
+}
@@ -0,0 +1,274 @@
+package identitychain.blockchain.storage;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the hash of every block stored in a directory to its height and the slot of its header in the HeaderStore.
+ *
+ * The index is an open-addressing hash table in a memory-mapped file (IDCBlockIndex.dat), so it is not rebuilt on
+ * startup and does not take heap space. The file starts with the number of entries, followed by fixed-size entries
+ * of a 32 byte hash, the height plus one (zero marks an empty entry), and the header slot.
+ *
+ * Entries are never removed. A block that is dropped from a BlockChain stays known, so storing it again reuses the
+ * existing record.
+ */
+public final class BlockIndex {
+    public static final int KEY_BYTES = 32;
+
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int ENTRY_SIZE = KEY_BYTES + Long.BYTES + Long.BYTES;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    // A MappedByteBuffer holds at most Integer.MAX_VALUE bytes, and the capacity is a power of two.
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / ENTRY_SIZE);
+
+    private static final Map<String, BlockIndex> INDEXES = new HashMap<>();
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private int capacity;
+    private long count;
+
+    public static final class Entry {
+        private final long height;
+        private final long slot;
+
+        private Entry(long height, long slot) {
+            this.height = height;
+            this.slot = slot;
+        }
+
+        public long getHeight() {
+            return height;
+        }
+
+        public long getSlot() {
+            return slot;
+        }
+    }
+
+    private BlockIndex(File file) throws IOException {
+        this.file = file;
+
+        open(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the index for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The BlockIndex for the directory, or null if it could not be opened.
+     */
+    public static BlockIndex getBlockIndex(File directory) {
+        synchronized (INDEXES) {
+            if (!INDEXES.containsKey(directory.getAbsolutePath())) {
+                directory.mkdirs();
+
+                try {
+                    INDEXES.put(directory.getAbsolutePath(), new BlockIndex(new File(directory, "IDCBlockIndex.dat")));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return INDEXES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Look up the block with the given hash.
+     *
+     * @param hash The hash of the block.
+     * @return The height and header slot of the block, or null if it has not been stored.
+     */
+    public synchronized Entry get(BlockChainInt hash) {
+        final byte[] key = toKey(hash);
+        final int slot = findSlot(table, capacity, key);
+        final int position = getPosition(slot);
+        final long height = table.getLong(position + KEY_BYTES);
+
+        if (height == 0) {
+            return null;
+        }
+
+        return new Entry(height - 1, table.getLong(position + KEY_BYTES + Long.BYTES));
+    }
+
+    /**
+     * Add or replace the entry for the given hash.
+     *
+     * @param hash The hash of the block.
+     * @param height The number of blocks before this one in its chain.
+     * @param slot The slot of the block's header in the HeaderStore.
+     * @throws IOException If the index had to grow and could not be rewritten.
+     */
+    public synchronized void put(BlockChainInt hash, long height, long slot) throws IOException {
+        if ((count + 1) * 4 > (long) capacity * 3) {
+            grow();
+        }
+
+        final byte[] key = toKey(hash);
+        final int position = getPosition(findSlot(table, capacity, key));
+
+        if (table.getLong(position + KEY_BYTES) == 0) {
+            count++;
+            table.putLong(0, count);
+        }
+
+        writeEntry(table, position, key, height + 1, slot);
+    }
+
+    /**
+     * Write any changes to the index to the storage device.
+     */
+    public synchronized void force() {
+        table.force();
+    }
+
+    /**
+     * Find the slot holding the key, or the empty slot where it would be inserted.
+     */
+    private static int findSlot(MappedByteBuffer table, int capacity, byte[] key) {
+        final int mask = capacity - 1;
+        int slot = (int) (getHashCode(key) & mask);
+
+        while (true) {
+            final int position = getPosition(slot);
+
+            if (table.getLong(position + KEY_BYTES) == 0 || matches(table, position, key)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static boolean matches(MappedByteBuffer table, int position, byte[] key) {
+        for (int i = 0; i < KEY_BYTES; i++) {
+            if (table.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeEntry(MappedByteBuffer table, int position, byte[] key, long height, long slot) {
+        for (int i = 0; i < KEY_BYTES; i++) {
+            table.put(position + i, key[i]);
+        }
+
+        table.putLong(position + KEY_BYTES, height);
+        table.putLong(position + KEY_BYTES + Long.BYTES, slot);
+    }
+
+    /**
+     * Block hashes are uniformly distributed, so the first bytes of the key are used directly.
+     */
+    private static long getHashCode(byte[] key) {
+        long hashCode = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            hashCode = (hashCode << 8) | (key[i] & 0xFF);
+        }
+
+        return hashCode;
+    }
+
+    private static int getPosition(int slot) {
+        return Math.toIntExact(HEADER_SIZE + (long) slot * ENTRY_SIZE);
+    }
+
+    private static byte[] toKey(BlockChainInt hash) {
+        final byte[] value = hash.toByteArray();
+        final byte[] key = new byte[KEY_BYTES];
+
+        System.arraycopy(value, value.length - KEY_BYTES, key, 0, KEY_BYTES);
+
+        return key;
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        if (channel.size() < HEADER_SIZE + (long) initialCapacity * ENTRY_SIZE) {
+            capacity = initialCapacity;
+        } else if (channel.size() <= HEADER_SIZE + (long) MAX_CAPACITY * ENTRY_SIZE) {
+            capacity = (int) ((channel.size() - HEADER_SIZE) / ENTRY_SIZE);
+        } else {
+            channel.close();
+            throw new IOException(file + " is larger than an index can be");
+        }
+
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(capacity));
+        count = table.getLong(0);
+    }
+
+    /**
+     * Rehash into a file with twice the capacity, and replace the current file with it.
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException(file + " is full");
+        }
+
+        final int newCapacity = capacity * 2;
+        final File newFile = new File(file.getAbsolutePath() + ".tmp");
+        newFile.delete();
+
+        try (final FileChannel newChannel = FileChannel.open(
+                newFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            final MappedByteBuffer newTable
+                    = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(newCapacity));
+            final byte[] key = new byte[KEY_BYTES];
+
+            for (int slot = 0; slot < capacity; slot++) {
+                final int position = getPosition(slot);
+                final long height = table.getLong(position + KEY_BYTES);
+
+                if (height != 0) {
+                    for (int i = 0; i < KEY_BYTES; i++) {
+                        key[i] = table.get(position + i);
+                    }
+
+                    writeEntry(
+                            newTable,
+                            getPosition(findSlot(newTable, newCapacity, key)),
+                            key,
+                            height,
+                            table.getLong(position + KEY_BYTES + Long.BYTES)
+                    );
+                }
+            }
+
+            newTable.putLong(0, count);
+            newTable.force();
+        }
+
+        channel.close();
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        open(newCapacity);
+    }
+}
@@ -0,0 +1,302 @@
+package identitychain.blockchain.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only storage for blocks, shared by every BlockChain in a directory.
+ *
+ * Records are appended to segment files (IDCSegment_[n].dat) of up to SEGMENT_SIZE bytes. Each record is its length
+ * followed by its bytes. Every segment has an offset table (IDCSegment_[n].idx) listing where each of its records
+ * starts, which is used to find the end of the last complete record when the log is reopened.
+ *
+ * A record is identified by its address, which is the segment number in the upper 32 bits and the offset of the
+ * record in the segment in the lower 32 bits.
+ *
+ * Records are read through memory mappings of the segments by default, so repeated reads are served from the page
+ * cache without being copied onto the heap.
+ */
+public final class BlockLog {
+    public static final int SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    public enum ReadMode {
+        CHANNEL, MAPPED
+    }
+
+    private static final Map<String, BlockLog> LOGS = new HashMap<>();
+
+    private final File directory;
+    private final List<FileChannel> segments = new ArrayList<>();
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+    private volatile ReadMode readMode = ReadMode.MAPPED;
+    private FileChannel offsetTable;
+    private long writeOffset;
+
+    private BlockLog(File directory) throws IOException {
+        this.directory = directory;
+
+        directory.mkdirs();
+
+        for (int segment = 0; getSegmentFile(segment).exists(); segment++) {
+            segments.add(openSegment(segment));
+            mappings.add(null);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(openSegment(0));
+            mappings.add(null);
+        }
+
+        recoverLastSegment();
+    }
+
+    /**
+     * Get the log for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the segments are stored in.
+     * @return The BlockLog for the directory, or null if it could not be opened.
+     */
+    public static BlockLog getBlockLog(File directory) {
+        synchronized (LOGS) {
+            if (!LOGS.containsKey(directory.getAbsolutePath())) {
+                try {
+                    LOGS.put(directory.getAbsolutePath(), new BlockLog(directory));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return LOGS.get(directory.getAbsolutePath());
+        }
+    }
+
+    private static int getSegment(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int getOffset(long address) {
+        return (int) address;
+    }
+
+    /**
+     * Append a record to the end of the log, starting a new segment if the current one is full.
+     *
+     * @param record The bytes to store.
+     * @return The address of the stored record.
+     * @throws IOException If the record could not be written.
+     */
+    public synchronized long append(byte[] record) throws IOException {
+        final int recordSize = Integer.BYTES + record.length;
+
+        if (writeOffset > 0 && writeOffset + recordSize > SEGMENT_SIZE) {
+            startSegment();
+        }
+
+        final int segment = segments.size() - 1;
+        final long address = ((long) segment << 32) | writeOffset;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(recordSize);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        buffer.flip();
+
+        final FileChannel channel = segments.get(segment);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, writeOffset + buffer.position());
+        }
+
+        final ByteBuffer offset = ByteBuffer.allocate(Integer.BYTES);
+        offset.putInt((int) writeOffset);
+        offset.flip();
+        offsetTable.write(offset, offsetTable.size());
+
+        writeOffset += recordSize;
+
+        return address;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    public void setReadMode(ReadMode readMode) {
+        this.readMode = readMode;
+    }
+
+    /**
+     * Read the record at the given address.
+     *
+     * In MAPPED mode the returned buffer is a read-only view of the segment mapping, otherwise it is a copy read
+     * from the segment file.
+     *
+     * @param address The address returned by append().
+     * @return A buffer positioned at the start of the record, with its limit at the end of the record.
+     * @throws IOException If the address does not point to a complete record.
+     */
+    public ByteBuffer read(long address) throws IOException {
+        final int segment = getSegment(address);
+        final long offset = getOffset(address) & 0xFFFFFFFFL;
+
+        if (readMode == ReadMode.MAPPED) {
+            return readMapped(segment, offset);
+        }
+
+        final FileChannel channel = getSegmentChannel(segment);
+
+        final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(channel, length, offset);
+
+        final ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+        readFully(channel, record, offset + Integer.BYTES);
+        record.flip();
+
+        return record;
+    }
+
+    private ByteBuffer readMapped(int segment, long offset) throws IOException {
+        final ByteBuffer header = getMapping(segment, offset + Integer.BYTES).duplicate();
+        final int length = header.getInt((int) offset);
+        final long end = offset + Integer.BYTES + length;
+
+        final ByteBuffer record = getMapping(segment, end).duplicate();
+        record.limit((int) end);
+        record.position((int) offset + Integer.BYTES);
+
+        return record.slice();
+    }
+
+    /**
+     * Get a mapping of the segment that includes everything before the given end.
+     *
+     * The last segment is still growing, so it is remapped whenever a record past the end of its mapping is read.
+     */
+    private synchronized MappedByteBuffer getMapping(int segment, long end) throws IOException {
+        final FileChannel channel = getSegmentChannel(segment);
+        MappedByteBuffer mapping = mappings.get(segment);
+
+        if (mapping == null || mapping.capacity() < end) {
+            if (channel.size() < end) {
+                throw new IOException("Record ending at " + end + " is past the end of segment " + segment);
+            }
+
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mappings.set(segment, mapping);
+        }
+
+        return mapping;
+    }
+
+    private synchronized FileChannel getSegmentChannel(int segment) throws IOException {
+        if (segment < 0 || segment >= segments.size()) {
+            throw new IOException("No segment " + segment + " in " + directory);
+        }
+
+        return segments.get(segment);
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Record at " + position + " is truncated.");
+            }
+        }
+    }
+
+    /**
+     * Write every record appended so far to the storage device.
+     *
+     * @throws IOException If the segment could not be synced.
+     */
+    public synchronized void force() throws IOException {
+        segments.get(segments.size() - 1).force(false);
+        offsetTable.force(false);
+    }
+
+    private void startSegment() throws IOException {
+
+        // Only the last segment is synced by force(), so the full one is synced before moving on.
+        force();
+        offsetTable.close();
+
+        segments.add(openSegment(segments.size()));
+        mappings.add(null);
+        offsetTable = openOffsetTable(segments.size() - 1);
+        writeOffset = 0;
+    }
+
+    /**
+     * Drop any partially written record at the end of the last segment.
+     *
+     * The offset table is written after the record, so the end of the last record it lists is the end of the log.
+     * A record that is listed but does not fit in the segment was torn, so it is dropped as well.
+     */
+    private void recoverLastSegment() throws IOException {
+        final int segment = segments.size() - 1;
+        final FileChannel channel = segments.get(segment);
+
+        offsetTable = openOffsetTable(segment);
+
+        final long entries = offsetTable.size() / Integer.BYTES;
+        long end = 0;
+
+        for (long i = entries - 1; i >= 0; i--) {
+            final ByteBuffer offset = ByteBuffer.allocate(Integer.BYTES);
+            readFully(offsetTable, offset, i * Integer.BYTES);
+            final long start = offset.getInt(0) & 0xFFFFFFFFL;
+
+            final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            if (start + Integer.BYTES <= channel.size()) {
+                readFully(channel, length, start);
+                final long recordEnd = start + Integer.BYTES + length.getInt(0);
+
+                if (recordEnd <= channel.size()) {
+                    end = recordEnd;
+                    offsetTable.truncate((i + 1) * Integer.BYTES);
+                    break;
+                }
+            }
+
+            if (i == 0) {
+                offsetTable.truncate(0);
+            }
+        }
+
+        channel.truncate(end);
+        writeOffset = end;
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        return FileChannel.open(
+                getSegmentFile(segment).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    private FileChannel openOffsetTable(int segment) throws IOException {
+        return FileChannel.open(
+                getOffsetTableFile(segment).toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(directory, "IDCSegment_" + segment + ".dat");
+    }
+
+    private File getOffsetTableFile(int segment) {
+        return new File(directory, "IDCSegment_" + segment + ".idx");
+    }
+}
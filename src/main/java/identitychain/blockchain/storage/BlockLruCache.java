@@ -0,0 +1,118 @@
+package identitychain.blockchain.storage;
+
+import identitychain.blockchain.Block;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of decoded Blocks, shared by every BlockChain in a directory.
+ *
+ * Blocks are keyed by their address in the BlockLog. A record never changes once it is written, so a primary
+ * BlockChain and its forks can share entries for the blocks they have in common.
+ */
+public final class BlockLruCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final Map<String, BlockLruCache> CACHES = new HashMap<>();
+
+    private final LinkedHashMap<Long, Block> blocks = new LinkedHashMap<Long, Block>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+            if (size() > capacity) {
+                evictions++;
+                return true;
+            }
+
+            return false;
+        }
+    };
+
+    private int capacity;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private BlockLruCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public static BlockLruCache getBlockLruCache(File directory) {
+        synchronized (CACHES) {
+            if (!CACHES.containsKey(directory.getAbsolutePath())) {
+                CACHES.put(directory.getAbsolutePath(), new BlockLruCache(DEFAULT_CAPACITY));
+            }
+
+            return CACHES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Get the cached block stored at the given address.
+     *
+     * @param address The address of the block in the BlockLog.
+     * @return The Block, or null if it is not cached.
+     */
+    public synchronized Block get(long address) {
+        final Block block = blocks.get(address);
+
+        if (block == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return block;
+    }
+
+    public synchronized void put(long address, Block block) {
+        blocks.put(address, block);
+    }
+
+    public synchronized void remove(long address) {
+        blocks.remove(address);
+    }
+
+    /**
+     * Change the maximum number of blocks held, evicting the least recently used blocks if there are too many.
+     *
+     * @param capacity The maximum number of blocks.
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+
+        while (blocks.size() > capacity) {
+            final Long eldest = blocks.keySet().iterator().next();
+            blocks.remove(eldest);
+            evictions++;
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return blocks.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BlockLruCache[size=" + blocks.size() + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,108 @@
+package identitychain.blockchain.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The heights of a fork that is still being built.
+ *
+ * Heights below the fork point are read from the table of the BlockChain that was forked, and only the heights from
+ * the fork point on are kept, in memory. Creating a fork therefore takes constant time and space however long the
+ * forked BlockChain is.
+ *
+ * The forked BlockChain may still change its heights below the fork point, so it calls detach() before it does. The
+ * fork then copies the heights it shares from there on, and reads them from its own copy afterwards, so only the
+ * heights the forked BlockChain changes are ever copied.
+ */
+public final class ForkTable implements SlotTable {
+    private final SlotTable parent;
+    private long forkHeight;
+    private long[] suffix = new long[16];
+    private int suffixSize = 0;
+
+    /**
+     * @param parent The table of the BlockChain being forked.
+     * @param forkHeight The number of heights shared with the forked BlockChain.
+     */
+    public ForkTable(SlotTable parent, long forkHeight) {
+        this.parent = parent;
+        this.forkHeight = Math.min(Math.max(0, forkHeight), parent.size());
+    }
+
+    /**
+     * Stop reading the heights from the given height on from the forked BlockChain's table, copying the ones this fork
+     * shares with it.
+     *
+     * This must be called before the forked BlockChain sets or drops any of these heights.
+     *
+     * @param height The lowest height the forked BlockChain is about to change.
+     */
+    public synchronized void detach(long height) {
+        height = Math.max(0, height);
+
+        if (height >= forkHeight) {
+            return;
+        }
+
+        final int copied = (int) (forkHeight - height);
+        final long[] newSuffix = new long[Math.max(suffix.length, copied + suffixSize)];
+
+        for (int i = 0; i < copied; i++) {
+            newSuffix[i] = parent.get(height + i);
+        }
+
+        System.arraycopy(suffix, 0, newSuffix, copied, suffixSize);
+
+        suffix = newSuffix;
+        suffixSize += copied;
+        forkHeight = height;
+    }
+
+    @Override
+    public synchronized long size() {
+        return forkHeight + suffixSize;
+    }
+
+    @Override
+    public synchronized long get(long height) {
+        if (height < 0 || height >= size()) {
+            return -1;
+        }
+
+        if (height < forkHeight) {
+            return parent.get(height);
+        }
+
+        return suffix[(int) (height - forkHeight)];
+    }
+
+    @Override
+    public synchronized void set(long height, long slot) throws IOException {
+        if (height > size()) {
+            throw new IOException("Height " + height + " is past the end of the fork.");
+        }
+
+        if (height < forkHeight) {
+            throw new IOException("Height " + height + " is below the fork point " + forkHeight);
+        }
+
+        final int index = (int) (height - forkHeight);
+
+        if (index >= suffix.length) {
+            suffix = Arrays.copyOf(suffix, suffix.length * 2);
+        }
+
+        suffix[index] = slot;
+        suffixSize = index + 1;
+    }
+
+    @Override
+    public synchronized void truncate(long size) {
+        if (size < forkHeight) {
+            forkHeight = Math.max(0, size);
+            suffixSize = 0;
+        } else if (size < size()) {
+            suffixSize = (int) (size - forkHeight);
+        }
+    }
+}
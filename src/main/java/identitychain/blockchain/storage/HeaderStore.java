@@ -0,0 +1,179 @@
+package identitychain.blockchain.storage;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.BlockHeader;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed-size header records for every block stored in a directory, in a memory-mapped file (IDCHeaders.dat).
+ *
+ * The file starts with the number of records, followed by records of the block hash, the header bytes, the address of
+ * the full block in the BlockLog, and the difficulty of the block. A record is identified by its slot, so finding the
+ * header of a block never requires reading its body.
+ *
+ * The file is paged in lazily as records are read. preload() reads the whole file into memory ahead of a long walk.
+ */
+public final class HeaderStore {
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int BODY_OFFSET = BlockChainInt.HASH_BYTES + Block.HEADER_SIZE;
+    private static final int DIFFICULTY_OFFSET = BODY_OFFSET + Long.BYTES;
+    private static final int RECORD_SIZE = DIFFICULTY_OFFSET + Double.BYTES;
+    private static final int GROWTH = 1 << 16;
+
+    // A MappedByteBuffer holds at most Integer.MAX_VALUE bytes.
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+
+    private static final Map<String, HeaderStore> STORES = new HashMap<>();
+
+    private final FileChannel channel;
+    private MappedByteBuffer records;
+    private int capacity;
+    private long size;
+
+    private HeaderStore(File file) throws IOException {
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        map(Math.max(GROWTH, (channel.size() - HEADER_SIZE) / RECORD_SIZE));
+        size = records.getLong(0);
+    }
+
+    /**
+     * Get the header store for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The HeaderStore for the directory, or null if it could not be opened.
+     */
+    public static HeaderStore getHeaderStore(File directory) {
+        synchronized (STORES) {
+            if (!STORES.containsKey(directory.getAbsolutePath())) {
+                directory.mkdirs();
+
+                try {
+                    STORES.put(directory.getAbsolutePath(), new HeaderStore(new File(directory, "IDCHeaders.dat")));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return STORES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Append the header of a block.
+     *
+     * @param header The header of the block.
+     * @param bodyAddress The address of the full block in the BlockLog.
+     * @return The slot of the new record.
+     * @throws IOException If the file could not grow.
+     */
+    public synchronized long append(BlockHeader header, long bodyAddress) throws IOException {
+        if (size >= capacity) {
+            if (capacity >= MAX_CAPACITY) {
+                throw new IOException("A header store cannot hold more than " + MAX_CAPACITY + " records");
+            }
+
+            map(Math.min(capacity + GROWTH, MAX_CAPACITY));
+        }
+
+        final ByteBuffer record = records.duplicate();
+        record.position(getPosition(size));
+
+        header.getHash().write(record, BlockChainInt.HASH_BYTES);
+        header.write(record);
+        record.putLong(bodyAddress);
+        record.putDouble(header.getDifficulty());
+
+        size++;
+        records.putLong(0, size);
+
+        return size - 1;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized BlockHeader get(long slot) {
+        if (slot < 0 || slot >= size) {
+            return null;
+        }
+
+        final ByteBuffer record = records.duplicate();
+        record.position(getPosition(slot));
+
+        return BlockHeader.read(BlockChainInt.read(record, BlockChainInt.HASH_BYTES), record);
+    }
+
+    public synchronized BlockChainInt getHash(long slot) {
+        if (slot < 0 || slot >= size) {
+            return null;
+        }
+
+        final ByteBuffer record = records.duplicate();
+        record.position(getPosition(slot));
+
+        return BlockChainInt.read(record, BlockChainInt.HASH_BYTES);
+    }
+
+    /**
+     * Get the address in the BlockLog of the full block.
+     *
+     * @param slot The slot of the header.
+     * @return The address of the block, or -1 if there is no such slot.
+     */
+    public synchronized long getBodyAddress(long slot) {
+        if (slot < 0 || slot >= size) {
+            return -1;
+        }
+
+        return records.getLong(getPosition(slot) + BODY_OFFSET);
+    }
+
+    public synchronized double getDifficulty(long slot) {
+        if (slot < 0 || slot >= size) {
+            return 0.0;
+        }
+
+        return records.getDouble(getPosition(slot) + DIFFICULTY_OFFSET);
+    }
+
+    /**
+     * Read every record into memory.
+     */
+    public synchronized void preload() {
+        records.load();
+    }
+
+    public synchronized void force() {
+        records.force();
+    }
+
+    private void map(long capacity) throws IOException {
+        if (capacity > MAX_CAPACITY) {
+            throw new IOException("A header store cannot hold more than " + MAX_CAPACITY + " records");
+        }
+
+        this.capacity = (int) capacity;
+        records = channel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(capacity));
+    }
+
+    private static int getPosition(long slot) {
+        return Math.toIntExact(HEADER_SIZE + slot * RECORD_SIZE);
+    }
+}
@@ -0,0 +1,35 @@
+package identitychain.blockchain.storage;
+
+import java.io.IOException;
+
+/**
+ * The HeaderStore slot of the block at each height of one BlockChain.
+ */
+public interface SlotTable {
+
+    long size();
+
+    /**
+     * Get the slot of the block at the given height.
+     *
+     * @param height The height of the block.
+     * @return The slot of the block, or -1 if there is no block at this height.
+     */
+    long get(long height);
+
+    /**
+     * Set the slot of the block at the given height, dropping every height above it.
+     *
+     * @param height The height of the block, at most size().
+     * @param slot The slot of the block.
+     * @throws IOException If the table could not grow.
+     */
+    void set(long height, long slot) throws IOException;
+
+    /**
+     * Drop every height from the given size upwards.
+     *
+     * @param size The number of heights to keep.
+     */
+    void truncate(long size);
+}
@@ -0,0 +1,315 @@
+package identitychain.blockchain.storage;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the hash of every transaction stored in a directory to the blocks that include it.
+ *
+ * The index is an open-addressing hash table in a memory-mapped file (IDCTransactionIndex.dat), laid out like the
+ * BlockIndex. Competing blocks may include the same transaction, so a hash can have several entries, each of the
+ * height of the block plus one (zero marks an empty entry), the slot of the block's header in the HeaderStore, and
+ * the position of the transaction in the block. An entry belongs to a BlockChain when the BlockChain has that header
+ * slot at that height.
+ *
+ * Entries are never removed, like those of the BlockIndex.
+ */
+public final class TransactionIndex {
+    private static final int KEY_BYTES = BlockIndex.KEY_BYTES;
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int HEIGHT_OFFSET = KEY_BYTES;
+    private static final int SLOT_OFFSET = HEIGHT_OFFSET + Long.BYTES;
+    private static final int POSITION_OFFSET = SLOT_OFFSET + Long.BYTES;
+    private static final int ENTRY_SIZE = POSITION_OFFSET + Integer.BYTES;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    // A MappedByteBuffer holds at most Integer.MAX_VALUE bytes, and the capacity is a power of two.
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / ENTRY_SIZE);
+
+    private static final Map<String, TransactionIndex> INDEXES = new HashMap<>();
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    private int capacity;
+    private long count;
+
+    public static final class Entry {
+        private final long height;
+        private final long blockSlot;
+        private final int position;
+
+        private Entry(long height, long blockSlot, int position) {
+            this.height = height;
+            this.blockSlot = blockSlot;
+            this.position = position;
+        }
+
+        public long getHeight() {
+            return height;
+        }
+
+        /**
+         * Get the slot of the header of the block that includes the transaction.
+         */
+        public long getBlockSlot() {
+            return blockSlot;
+        }
+
+        /**
+         * Get the position of the transaction in the block's list of transactions.
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    private TransactionIndex(File file) throws IOException {
+        this.file = file;
+
+        open(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Get the index for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The TransactionIndex for the directory, or null if it could not be opened.
+     */
+    public static TransactionIndex getTransactionIndex(File directory) {
+        synchronized (INDEXES) {
+            if (!INDEXES.containsKey(directory.getAbsolutePath())) {
+                directory.mkdirs();
+
+                try {
+                    INDEXES.put(
+                            directory.getAbsolutePath(),
+                            new TransactionIndex(new File(directory, "IDCTransactionIndex.dat"))
+                    );
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return INDEXES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Look up every block that includes the transaction with the given hash.
+     *
+     * @param hash The hash of the transaction.
+     * @return The entries of the transaction, which are empty if it has not been stored.
+     */
+    public synchronized List<Entry> get(BlockChainInt hash) {
+        final byte[] key = toKey(hash);
+        final List<Entry> entries = new ArrayList<>(1);
+        final int mask = capacity - 1;
+
+        for (int slot = (int) (getHashCode(key) & mask); ; slot = (slot + 1) & mask) {
+            final int position = getPosition(slot);
+            final long height = table.getLong(position + HEIGHT_OFFSET);
+
+            if (height == 0) {
+                return entries;
+            }
+
+            if (matches(table, position, key)) {
+                entries.add(new Entry(
+                        height - 1,
+                        table.getLong(position + SLOT_OFFSET),
+                        table.getInt(position + POSITION_OFFSET)
+                ));
+            }
+        }
+    }
+
+    /**
+     * Add an entry for the given hash, unless the same entry is already present.
+     *
+     * @param hash The hash of the transaction.
+     * @param height The number of blocks before the block that includes the transaction.
+     * @param blockSlot The slot of the block's header in the HeaderStore.
+     * @param transactionPosition The position of the transaction in the block.
+     * @throws IOException If the index had to grow and could not be rewritten.
+     */
+    public synchronized void put(BlockChainInt hash, long height, long blockSlot, int transactionPosition)
+            throws IOException {
+
+        if ((count + 1) * 4 > (long) capacity * 3) {
+            grow();
+        }
+
+        final byte[] key = toKey(hash);
+        final int mask = capacity - 1;
+
+        for (int slot = (int) (getHashCode(key) & mask); ; slot = (slot + 1) & mask) {
+            final int position = getPosition(slot);
+
+            if (table.getLong(position + HEIGHT_OFFSET) == 0) {
+                writeEntry(table, position, key, height + 1, blockSlot, transactionPosition);
+                count++;
+                table.putLong(0, count);
+                return;
+            }
+
+            if (matches(table, position, key)
+                    && table.getLong(position + SLOT_OFFSET) == blockSlot
+                    && table.getInt(position + POSITION_OFFSET) == transactionPosition) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write any changes to the index to the storage device.
+     */
+    public synchronized void force() {
+        table.force();
+    }
+
+    private static boolean matches(MappedByteBuffer table, int position, byte[] key) {
+        for (int i = 0; i < KEY_BYTES; i++) {
+            if (table.get(position + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void writeEntry(MappedByteBuffer table,
+                                   int position,
+                                   byte[] key,
+                                   long height,
+                                   long blockSlot,
+                                   int transactionPosition) {
+
+        for (int i = 0; i < KEY_BYTES; i++) {
+            table.put(position + i, key[i]);
+        }
+
+        table.putLong(position + HEIGHT_OFFSET, height);
+        table.putLong(position + SLOT_OFFSET, blockSlot);
+        table.putInt(position + POSITION_OFFSET, transactionPosition);
+    }
+
+    /**
+     * Transaction hashes are uniformly distributed, so the first bytes of the key are used directly.
+     */
+    private static long getHashCode(byte[] key) {
+        long hashCode = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            hashCode = (hashCode << 8) | (key[i] & 0xFF);
+        }
+
+        return hashCode;
+    }
+
+    private static int getPosition(int slot) {
+        return Math.toIntExact(HEADER_SIZE + (long) slot * ENTRY_SIZE);
+    }
+
+    private static byte[] toKey(BlockChainInt hash) {
+        final byte[] value = hash.toByteArray();
+        final byte[] key = new byte[KEY_BYTES];
+        final int length = Math.min(value.length, KEY_BYTES);
+
+        System.arraycopy(value, value.length - length, key, KEY_BYTES - length, length);
+
+        return key;
+    }
+
+    private void open(int initialCapacity) throws IOException {
+        channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        if (channel.size() < HEADER_SIZE + (long) initialCapacity * ENTRY_SIZE) {
+            capacity = initialCapacity;
+        } else if (channel.size() <= HEADER_SIZE + (long) MAX_CAPACITY * ENTRY_SIZE) {
+            capacity = (int) ((channel.size() - HEADER_SIZE) / ENTRY_SIZE);
+        } else {
+            channel.close();
+            throw new IOException(file + " is larger than an index can be");
+        }
+
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(capacity));
+        count = table.getLong(0);
+    }
+
+    /**
+     * Rehash into a file with twice the capacity, and replace the current file with it.
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IOException(file + " is full");
+        }
+
+        final int newCapacity = capacity * 2;
+        final int mask = newCapacity - 1;
+        final File newFile = new File(file.getAbsolutePath() + ".tmp");
+        newFile.delete();
+
+        try (final FileChannel newChannel = FileChannel.open(
+                newFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+
+            final MappedByteBuffer newTable
+                    = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(newCapacity));
+            final byte[] key = new byte[KEY_BYTES];
+
+            for (int slot = 0; slot < capacity; slot++) {
+                final int position = getPosition(slot);
+                final long height = table.getLong(position + HEIGHT_OFFSET);
+
+                if (height != 0) {
+                    for (int i = 0; i < KEY_BYTES; i++) {
+                        key[i] = table.get(position + i);
+                    }
+
+                    int newSlot = (int) (getHashCode(key) & mask);
+
+                    while (newTable.getLong(getPosition(newSlot) + HEIGHT_OFFSET) != 0) {
+                        newSlot = (newSlot + 1) & mask;
+                    }
+
+                    writeEntry(
+                            newTable,
+                            getPosition(newSlot),
+                            key,
+                            height,
+                            table.getLong(position + SLOT_OFFSET),
+                            table.getInt(position + POSITION_OFFSET)
+                    );
+                }
+            }
+
+            newTable.putLong(0, count);
+            newTable.force();
+        }
+
+        channel.close();
+        Files.move(newFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        open(newCapacity);
+    }
+}
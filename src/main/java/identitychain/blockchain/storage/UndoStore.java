@@ -0,0 +1,286 @@
+package identitychain.blockchain.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only storage for the undo record of every block stored in a directory, in IDCUndo.dat.
+ *
+ * Each record is a checksum, the slot of the block's header in the HeaderStore, the length of the record, and its
+ * bytes. An undo record depends only on the block, so every BlockChain that includes the block shares it.
+ *
+ * The offset of each record is kept in a memory-mapped table indexed by header slot (IDCUndo.idx), so nothing is held
+ * on the heap and opening the store does not read the records. The table starts with the end of the records that
+ * were on the storage device at the last force(), and only the records after it are checked when the store is
+ * opened. A record that fails its checksum, when opened or when read, is cut off along with every record after it,
+ * and the undo records of those blocks are built from the blocks again.
+ */
+public final class UndoStore {
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int SLOT_OFFSET = Integer.BYTES;
+    private static final int LENGTH_OFFSET = SLOT_OFFSET + Long.BYTES;
+    private static final int INDEX_HEADER_SIZE = Long.BYTES;
+    private static final int GROWTH = 1 << 16;
+
+    // A MappedByteBuffer holds at most Integer.MAX_VALUE bytes.
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - INDEX_HEADER_SIZE) / Long.BYTES;
+
+    private static final Map<String, UndoStore> STORES = new HashMap<>();
+
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer offsets;
+    private int capacity;
+    private long writeOffset = 0;
+
+    private UndoStore(File file, File indexFile) throws IOException {
+        channel = openChannel(file);
+        indexChannel = openChannel(indexFile);
+
+        mapIndex(Math.max(GROWTH, (indexChannel.size() - INDEX_HEADER_SIZE) / Long.BYTES));
+        recover();
+    }
+
+    /**
+     * Get the undo store for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The UndoStore for the directory, or null if it could not be opened.
+     */
+    public static UndoStore getUndoStore(File directory) {
+        synchronized (STORES) {
+            if (!STORES.containsKey(directory.getAbsolutePath())) {
+                directory.mkdirs();
+
+                try {
+                    STORES.put(directory.getAbsolutePath(), open(directory));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return STORES.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Open the undo store of the given directory without registering it, so it is only used by the caller.
+     */
+    static UndoStore open(File directory) throws IOException {
+        return new UndoStore(new File(directory, "IDCUndo.dat"), new File(directory, "IDCUndo.idx"));
+    }
+
+    public synchronized boolean contains(long slot) {
+        try {
+            return find(slot) >= 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Read the undo record of the block with the given header slot.
+     *
+     * @return The bytes of the record, or null if none was stored or it failed its checksum.
+     * @throws IOException If the record could not be read.
+     */
+    public synchronized byte[] get(long slot) throws IOException {
+        final long offset = find(slot);
+
+        if (offset < 0) {
+            return null;
+        }
+
+        final int length = read(offset + LENGTH_OFFSET, Integer.BYTES).getInt();
+
+        if (length < 0 || offset + RECORD_HEADER_SIZE + length > writeOffset) {
+            truncate(offset);
+            return null;
+        }
+
+        final ByteBuffer record = read(offset, RECORD_HEADER_SIZE + length);
+
+        if (record.getInt(0) != getChecksum(record)) {
+            truncate(offset);
+            return null;
+        }
+
+        return Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, record.capacity());
+    }
+
+    /**
+     * Append the undo record of the block with the given header slot, unless it already has one.
+     *
+     * @param slot The slot of the block's header.
+     * @param record The bytes of the undo record.
+     * @throws IOException If the record could not be written, or the table of offsets could not grow.
+     */
+    public synchronized void put(long slot, byte[] record) throws IOException {
+        if (find(slot) >= 0) {
+            return;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + record.length);
+        buffer.putInt(0);
+        buffer.putLong(slot);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        buffer.putInt(0, getChecksum(buffer));
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, writeOffset + buffer.position());
+        }
+
+        setOffset(slot, writeOffset);
+        writeOffset += buffer.capacity();
+    }
+
+    /**
+     * Write any appended records to the storage device, and then the end of the records that are now there.
+     */
+    public synchronized void force() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        offsets.putLong(0, writeOffset);
+        offsets.force();
+    }
+
+    /**
+     * Check the records appended since the last force(), adding their offsets to the table, and cut off everything
+     * from the first record that is incomplete or fails its checksum.
+     */
+    private void recover() throws IOException {
+        final long size = channel.size();
+        writeOffset = Math.min(offsets.getLong(0), size);
+
+        while (writeOffset + RECORD_HEADER_SIZE <= size) {
+            final ByteBuffer header = read(writeOffset, RECORD_HEADER_SIZE);
+            final long slot = header.getLong(SLOT_OFFSET);
+            final int length = header.getInt(LENGTH_OFFSET);
+
+            if (slot < 0 || length < 0 || writeOffset + RECORD_HEADER_SIZE + length > size) {
+                break;
+            }
+
+            final ByteBuffer record = read(writeOffset, RECORD_HEADER_SIZE + length);
+
+            if (record.getInt(0) != getChecksum(record)) {
+                break;
+            }
+
+            setOffset(slot, writeOffset);
+            writeOffset += record.capacity();
+        }
+
+        if (writeOffset < size) {
+            channel.truncate(writeOffset);
+        }
+    }
+
+    /**
+     * Get the offset of the record of the given slot.
+     *
+     * The table is not cleared when records are cut off, so an offset only counts if it is before the end of the
+     * records and the record there is for the same slot.
+     *
+     * @return The offset, or -1 if the slot has no record.
+     */
+    private long find(long slot) throws IOException {
+        if (slot < 0 || slot >= capacity) {
+            return -1;
+        }
+
+        final long offset = offsets.getLong(getPosition(slot)) - 1;
+
+        if (offset < 0 || offset + RECORD_HEADER_SIZE > writeOffset) {
+            return -1;
+        }
+
+        return read(offset + SLOT_OFFSET, Long.BYTES).getLong() == slot ? offset : -1;
+    }
+
+    private void setOffset(long slot, long offset) throws IOException {
+        if (slot >= capacity) {
+            if (slot >= MAX_CAPACITY) {
+                throw new IOException("An undo store cannot hold more than " + MAX_CAPACITY + " records");
+            }
+
+            mapIndex(Math.min(Math.max(slot + 1, (long) capacity + GROWTH), MAX_CAPACITY));
+        }
+
+        // Zero marks a slot without a record.
+        offsets.putLong(getPosition(slot), offset + 1);
+    }
+
+    /**
+     * Cut off the record at the given offset and every record after it.
+     */
+    private void truncate(long offset) throws IOException {
+        writeOffset = offset;
+        channel.truncate(offset);
+
+        if (offsets.getLong(0) > offset) {
+            offsets.putLong(0, offset);
+            offsets.force();
+        }
+    }
+
+    private void mapIndex(long capacity) throws IOException {
+        if (capacity > MAX_CAPACITY) {
+            throw new IOException("An undo store cannot hold more than " + MAX_CAPACITY + " records");
+        }
+
+        this.capacity = (int) capacity;
+        offsets = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, getPosition(capacity));
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Undo record at " + position + " is past the end of the file.");
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+    }
+
+    private static int getChecksum(ByteBuffer record) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(record.array(), Integer.BYTES, record.capacity() - Integer.BYTES);
+
+        return (int) checksum.getValue();
+    }
+
+    private static int getPosition(long slot) {
+        return Math.toIntExact(INDEX_HEADER_SIZE + slot * Long.BYTES);
+    }
+}
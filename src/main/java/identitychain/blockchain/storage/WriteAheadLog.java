@@ -0,0 +1,299 @@
+package identitychain.blockchain.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Records changes to the BlockChains in a directory (IDCWal.log), so they can be replayed after a crash.
+ *
+ * The index and the address tables are memory-mapped and only written to the storage device at checkpoints. Every
+ * change to them is recorded here first, and a record is only durable once commit() returns. A single thread syncs
+ * the log for every waiting commit at once, so concurrent callers share one sync. The BlockLog and the HeaderStore
+ * are synced before the log, so a durable record never refers to a block that was lost.
+ *
+ * The file starts with the sequence number of its first record, followed by fixed-size records of a checksum, the
+ * type, the id of the address table, and two arguments. A table is named after the uid of its BlockChain. The
+ * sequence number of a record is its position in the log since the directory was created.
+ */
+public final class WriteAheadLog {
+
+    /**
+     * The block in header slot second was stored at height first of the table.
+     */
+    public static final int APPEND = 1;
+
+    /**
+     * The table was truncated to first blocks.
+     */
+    public static final int HEAD = 2;
+
+    /**
+     * The address table was deleted.
+     */
+    public static final int DELETE = 3;
+
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int RECORD_SIZE = Integer.BYTES + Integer.BYTES + 3 * Long.BYTES;
+
+    private static final Map<String, WriteAheadLog> LOGS = new HashMap<>();
+
+    private final File directory;
+    private final FileChannel channel;
+    private long first;
+    private long end;
+    private long requested;
+    private long durable;
+
+    public interface Visitor {
+        void visit(int type, long tableId, long first, long second);
+    }
+
+    private WriteAheadLog(File directory) throws IOException {
+        this.directory = directory;
+
+        channel = FileChannel.open(
+                new File(directory, "IDCWal.log").toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+
+        if (channel.size() < HEADER_SIZE) {
+            writeFirst(0);
+        } else {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            first = header.getLong(0);
+        }
+
+        end = first + countValidRecords();
+        channel.truncate(getPosition(end + 1));
+        requested = end;
+        durable = end;
+
+        final Thread committer = new Thread(this::commitLoop, "WriteAheadLog " + directory.getName());
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Get the log for the given directory, opening it if this is the first use.
+     *
+     * @param directory The directory the blocks are stored in.
+     * @return The WriteAheadLog for the directory, or null if it could not be opened.
+     */
+    public static WriteAheadLog getWriteAheadLog(File directory) {
+        synchronized (LOGS) {
+            if (!LOGS.containsKey(directory.getAbsolutePath())) {
+                directory.mkdirs();
+
+                try {
+                    LOGS.put(directory.getAbsolutePath(), new WriteAheadLog(directory));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+
+            return LOGS.get(directory.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Add a record to the end of the log. The record is not durable until it is committed.
+     *
+     * @return The sequence number to pass to commit().
+     * @throws IOException If the record could not be written.
+     */
+    public synchronized long append(int type, long tableId, long first, long second) throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(0);
+        record.putInt(type);
+        record.putLong(tableId);
+        record.putLong(first);
+        record.putLong(second);
+        record.putInt(0, getChecksum(record));
+        record.flip();
+
+        final long position = getPosition(end + 1);
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+
+        end++;
+
+        return end;
+    }
+
+    /**
+     * Wait until every record up to the given one is on the storage device.
+     *
+     * @param sequenceNumber The value returned by append().
+     */
+    public synchronized void commit(long sequenceNumber) {
+        if (sequenceNumber > requested) {
+            requested = sequenceNumber;
+            notifyAll();
+        }
+
+        while (durable < sequenceNumber) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the sequence number of the last record, which a checkpoint should pass to checkpoint() once everything
+     * written so far is on the storage device.
+     */
+    public synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Drop the records that a checkpoint has made unnecessary.
+     *
+     * The log can only be cut at its end, so nothing is dropped if records were added since the checkpoint began.
+     *
+     * @param sequenceNumber The value of getEnd() before the checkpoint flushed the storage.
+     */
+    public synchronized void checkpoint(long sequenceNumber) {
+        if (sequenceNumber != end || end == first) {
+            return;
+        }
+
+        try {
+            channel.truncate(HEADER_SIZE);
+            writeFirst(end);
+            channel.force(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Visit every record in the order it was written.
+     *
+     * @param visitor The visitor to apply each record with.
+     */
+    public synchronized void replay(Visitor visitor) {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+        try {
+            for (long sequenceNumber = first; sequenceNumber < end; sequenceNumber++) {
+                record.clear();
+                readFully(record, getPosition(sequenceNumber + 1));
+
+                visitor.visit(record.getInt(4), record.getLong(8), record.getLong(16), record.getLong(24));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sync the storage for every waiting commit, until the JVM exits.
+     */
+    private void commitLoop() {
+        while (true) {
+            final long target;
+
+            synchronized (this) {
+                while (durable >= requested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                target = end;
+            }
+
+            final BlockLog log = BlockLog.getBlockLog(directory);
+            final HeaderStore headers = HeaderStore.getHeaderStore(directory);
+
+            try {
+                if (log != null) {
+                    log.force();
+                }
+
+                if (headers != null) {
+                    headers.force();
+                }
+
+                channel.force(false);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            synchronized (this) {
+                durable = Math.max(durable, target);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Count the records before the first one that was torn or never completely written.
+     */
+    private long countValidRecords() throws IOException {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        final long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+
+        for (long i = 0; i < records; i++) {
+            record.clear();
+            readFully(record, HEADER_SIZE + i * RECORD_SIZE);
+
+            if (record.getInt(0) != getChecksum(record)) {
+                return i;
+            }
+        }
+
+        return records;
+    }
+
+    private void writeFirst(long first) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(first);
+        header.flip();
+
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+
+        this.first = first;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Record at " + position + " is truncated.");
+            }
+        }
+    }
+
+    private static int getChecksum(ByteBuffer record) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(record.array(), Integer.BYTES, RECORD_SIZE - Integer.BYTES);
+
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Get the position in the file of the record with the given sequence number, counting from one.
+     */
+    private long getPosition(long sequenceNumber) {
+        return HEADER_SIZE + (sequenceNumber - first - 1) * RECORD_SIZE;
+    }
+}
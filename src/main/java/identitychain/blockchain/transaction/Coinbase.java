@@ -1,10 +1,13 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.List;
 
@@ -17,18 +20,27 @@ public class Coinbase extends CurrencyTransaction {
         this.extraNonce = extraNonce;
     }
 
+    /**
+     * A coinbase has no inputs, so only the extra nonce and the outputs are written.
+     */
     @Override
-    protected BlockChainInt getInputHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+    void writeFields(DataOutput out) throws IOException {
+        out.writeInt(extraNonce);
+        writeOutputs(out);
+    }
+
+    static Coinbase readFields(long id, ByteBuffer in) throws IOException {
+        final int extraNonce = Codec.readInt(in);
 
-            hash.update(ByteBuffer.allocate(Integer.BYTES).putInt(extraNonce));
+        return new Coinbase(id, readOutputs(in), extraNonce);
+    }
+
+    @Override
+    protected BlockChainInt computeInputHash() {
+        final MessageDigest hash = Hashing.getDigest();
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
+        Hashing.update(hash, extraNonce);
 
-        return BlockChainInt.ZERO;
+        return Hashing.digest(hash);
     }
 }
@@ -1,12 +1,15 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.*;
 
@@ -14,6 +17,11 @@ public class CurrencyTransaction extends Transaction{
     private final List<CurrencyTransactionInput> inputs = new ArrayList<>();
     private final List<CurrencyTransactionOutput> outputs = new ArrayList<>();
 
+    // The inputs and outputs do not change once the transaction is created, so each hash is computed on first use.
+    private transient volatile BlockChainInt hash;
+    private transient volatile BlockChainInt inputHash;
+    private transient volatile BlockChainInt outputHash;
+
     public CurrencyTransaction(long id, List<CurrencyTransactionInput> inputs, List<CurrencyTransactionOutput> outputs) {
         super(id);
         this.inputs.addAll(inputs);
@@ -22,36 +30,61 @@ public class CurrencyTransaction extends Transaction{
 
     @Override
     public BlockChainInt getHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
-
-            hash.update(getInputHash().toByteArray());
-            hash.update(getOutputHash().toByteArray());
+        BlockChainInt hash = this.hash;
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        if (hash == null) {
+            hash = computeHash();
+            this.hash = hash;
         }
 
-        return BlockChainInt.ZERO;
+        return hash;
+    }
+
+    private BlockChainInt computeHash() {
+        // Both are found before the digest is taken, since computing either of them uses it.
+        final BlockChainInt inputHash = getInputHash();
+        final BlockChainInt outputHash = getOutputHash();
+        final MessageDigest hash = Hashing.getDigest();
+
+        Hashing.update(hash, inputHash);
+        Hashing.update(hash, outputHash);
+
+        return Hashing.digest(hash);
     }
 
     /**
      * Check that the signatures all match to ensure that it was not tampered with.
      *
-     * This also checks that all amounts are positive.
+     * This also checks that all amounts are positive. Signatures already found valid are read from the
+     * SignatureCache.
      *
      * @return If the signatures are all valid.
      */
     @Override
     public boolean isValid() {
-        final BlockChainInt outputHash = getOutputHash();
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!verifySignature(i)) {
+                return false;
+            }
+        }
 
-        return inputs.stream().map(input -> input.verifySignature(outputHash)).reduce(true, (a, b) -> a && b)
-                && outputs.stream().map(output -> output.getAmount() >= 0).reduce(true, (a, b) -> a && b)
+        return outputs.stream().map(output -> output.getAmount() >= 0).reduce(true, (a, b) -> a && b)
                 && getTransactionFee() >= 0;
     }
 
+    @Override
+    public int getSignatureCount() {
+        return inputs.size();
+    }
+
+    @Override
+    public boolean verifySignature(int index) {
+        final CurrencyTransactionInput input = inputs.get(index);
+        final BlockChainInt outputHash = getOutputHash();
+
+        return SignatureCache.getSignatureCache().verify(getHash(), index, () -> input.verifySignature(outputHash));
+    }
+
     /**
      * Check how this transaction affects the balances of each wallet.
      *
@@ -83,39 +116,100 @@ public class CurrencyTransaction extends Transaction{
         return outputs.stream().map(CurrencyTransactionOutput::getAmount).reduce(0L, (x, y) -> x + y);
     }
 
-    protected BlockChainInt getInputHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+    @Override
+    void writeFields(DataOutput out) throws IOException {
+        Codec.writeVarLong(out, inputs.size());
+        for (CurrencyTransactionInput input : inputs) {
+            input.write(out);
+        }
 
-            for (int i = 0; i < inputs.size(); i++) {
-                hash.update(inputs.get(i).getHash().toByteArray());
-            }
+        writeOutputs(out);
+    }
+
+    void writeOutputs(DataOutput out) throws IOException {
+        Codec.writeVarLong(out, outputs.size());
+        for (CurrencyTransactionOutput output : outputs) {
+            output.write(out);
+        }
+    }
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+    static CurrencyTransaction readFields(long id, ByteBuffer in) throws IOException {
+        final int inputCount = Codec.readLength(in);
+        final List<CurrencyTransactionInput> inputs = new ArrayList<>(inputCount);
+
+        for (int i = 0; i < inputCount; i++) {
+            inputs.add(CurrencyTransactionInput.read(in));
         }
 
-        return BlockChainInt.ZERO;
+        return new CurrencyTransaction(id, inputs, readOutputs(in));
     }
 
-    protected BlockChainInt getOutputHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+    static List<CurrencyTransactionOutput> readOutputs(ByteBuffer in) throws IOException {
+        final int outputCount = Codec.readLength(in);
+        final List<CurrencyTransactionOutput> outputs = new ArrayList<>(outputCount);
 
-            // Add the id to the hash to prevent duplicate transactions.
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(getID()));
+        for (int i = 0; i < outputCount; i++) {
+            outputs.add(CurrencyTransactionOutput.read(in));
+        }
 
-            for (int i = 0; i < outputs.size(); i++) {
-                hash.update(outputs.get(i).getHash().toByteArray());
-            }
+        return outputs;
+    }
+
+    protected final BlockChainInt getInputHash() {
+        BlockChainInt inputHash = this.inputHash;
+
+        if (inputHash == null) {
+            inputHash = computeInputHash();
+            this.inputHash = inputHash;
+        }
+
+        return inputHash;
+    }
+
+    protected final BlockChainInt getOutputHash() {
+        BlockChainInt outputHash = this.outputHash;
+
+        if (outputHash == null) {
+            outputHash = computeOutputHash();
+            this.outputHash = outputHash;
+        }
+
+        return outputHash;
+    }
+
+    protected BlockChainInt computeInputHash() {
+        final BlockChainInt[] inputHashes = new BlockChainInt[inputs.size()];
+
+        for (int i = 0; i < inputHashes.length; i++) {
+            inputHashes[i] = inputs.get(i).getHash();
+        }
+
+        final MessageDigest hash = Hashing.getDigest();
+
+        for (BlockChainInt inputHash : inputHashes) {
+            Hashing.update(hash, inputHash);
+        }
+
+        return Hashing.digest(hash);
+    }
+
+    private BlockChainInt computeOutputHash() {
+        final BlockChainInt[] outputHashes = new BlockChainInt[outputs.size()];
+
+        for (int i = 0; i < outputHashes.length; i++) {
+            outputHashes[i] = outputs.get(i).getHash();
+        }
+
+        final MessageDigest hash = Hashing.getDigest();
+
+        // Add the id to the hash to prevent duplicate transactions.
+        Hashing.update(hash, getID());
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        for (BlockChainInt outputHash : outputHashes) {
+            Hashing.update(hash, outputHash);
         }
 
-        return BlockChainInt.ZERO;
+        return Hashing.digest(hash);
     }
 
     @Override
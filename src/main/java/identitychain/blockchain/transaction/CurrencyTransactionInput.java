@@ -1,9 +1,13 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.*;
 
@@ -12,6 +16,8 @@ public class CurrencyTransactionInput implements TransactionInput {
     private final long amount;
     private final byte[] signature;
 
+    private transient volatile BlockChainInt hash;
+
     private CurrencyTransactionInput(PublicKey sourcePublicKey, long amount, byte[] signature) {
         this.sourcePublicKey = sourcePublicKey;
         this.amount = amount;
@@ -21,15 +27,13 @@ public class CurrencyTransactionInput implements TransactionInput {
     public static CurrencyTransactionInput generateInput(KeyPair keyPair, long amount, BlockChainInt outputHash) {
 
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initSign(keyPair.getPrivate());
-            sig.update(ByteBuffer.allocate(Long.BYTES).putLong(amount));
-            sig.update(outputHash.toByteArray());
+            Hashing.update(sig, amount);
+            Hashing.update(sig, outputHash);
 
             return new CurrencyTransactionInput(keyPair.getPublic(), amount, sig.sign());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -51,15 +55,13 @@ public class CurrencyTransactionInput implements TransactionInput {
         }
 
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initVerify(sourcePublicKey);
-            sig.update(ByteBuffer.allocate(Long.BYTES).putLong(amount));
-            sig.update(outputHash.toByteArray());
+            Hashing.update(sig, amount);
+            Hashing.update(sig, outputHash);
 
             return sig.verify(signature);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -77,21 +79,36 @@ public class CurrencyTransactionInput implements TransactionInput {
         return amount;
     }
 
+    void write(DataOutput out) throws IOException {
+        Codec.writePublicKey(out, sourcePublicKey);
+        Codec.writeSignedVarLong(out, amount);
+        Codec.writeBytes(out, signature);
+    }
+
+    static CurrencyTransactionInput read(ByteBuffer in) throws IOException {
+        return new CurrencyTransactionInput(Codec.readPublicKey(in), Codec.readSignedVarLong(in), Codec.readBytes(in));
+    }
+
     @Override
     public BlockChainInt getHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
-
-            hash.update(sourcePublicKey.getEncoded());
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(amount));
-            hash.update(signature);
+        BlockChainInt hash = this.hash;
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        if (hash == null) {
+            hash = computeHash();
+            this.hash = hash;
         }
 
-        return BlockChainInt.ZERO;
+        return hash;
+    }
+
+    private BlockChainInt computeHash() {
+        final MessageDigest hash = Hashing.getDigest();
+
+        hash.update(sourcePublicKey.getEncoded());
+        Hashing.update(hash, amount);
+        hash.update(signature);
+
+        return Hashing.digest(hash);
     }
 
     @Override
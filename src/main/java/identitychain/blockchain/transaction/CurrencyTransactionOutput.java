@@ -1,18 +1,23 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 
 public class CurrencyTransactionOutput implements TransactionOutput {
     private final PublicKey destPublicKey;
     private final long amount;
 
+    private transient volatile BlockChainInt hash;
+
     public CurrencyTransactionOutput(PublicKey destPublicKey, long amount) {
         this.destPublicKey = destPublicKey;
         this.amount = amount;
@@ -26,20 +31,34 @@ public class CurrencyTransactionOutput implements TransactionOutput {
         return amount;
     }
 
+    void write(DataOutput out) throws IOException {
+        Codec.writePublicKey(out, destPublicKey);
+        Codec.writeSignedVarLong(out, amount);
+    }
+
+    static CurrencyTransactionOutput read(ByteBuffer in) throws IOException {
+        return new CurrencyTransactionOutput(Codec.readPublicKey(in), Codec.readSignedVarLong(in));
+    }
+
     @Override
     public BlockChainInt getHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+        BlockChainInt hash = this.hash;
 
-            hash.update(destPublicKey.getEncoded());
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(amount));
-
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        if (hash == null) {
+            hash = computeHash();
+            this.hash = hash;
         }
 
-        return BlockChainInt.ZERO;
+        return hash;
+    }
+
+    private BlockChainInt computeHash() {
+        final MessageDigest hash = Hashing.getDigest();
+
+        hash.update(destPublicKey.getEncoded());
+        Hashing.update(hash, amount);
+
+        return Hashing.digest(hash);
     }
 
     @Override
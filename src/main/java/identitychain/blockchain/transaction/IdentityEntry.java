@@ -1,7 +1,13 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 
 public class IdentityEntry extends Transaction {
@@ -11,12 +17,24 @@ public class IdentityEntry extends Transaction {
 
     private byte[] signature;
 
+    // The hash covers the signature, so it is computed on first use and dropped when the entry is signed.
+    private transient volatile BlockChainInt hash;
+
     public IdentityEntry(PublicKey publicKey, String name, BlockChainInt documentHash) {
         this.publicKey = publicKey;
         this.name = name;
         this.documentHash = documentHash;
     }
 
+    private IdentityEntry(long id, PublicKey publicKey, String name, BlockChainInt documentHash, byte[] signature) {
+        super(id);
+
+        this.publicKey = publicKey;
+        this.name = name;
+        this.documentHash = documentHash;
+        this.signature = signature;
+    }
+
     public PublicKey getPublicKey() {
         return publicKey;
     }
@@ -31,16 +49,15 @@ public class IdentityEntry extends Transaction {
 
     public void sign(PrivateKey privateKey) {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initSign(privateKey);
             sig.update(publicKey.getEncoded());
             sig.update(name.getBytes());
-            sig.update(documentHash.toByteArray());
+            Hashing.update(sig, documentHash);
 
             signature = sig.sign();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            hash = null;
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -50,16 +67,14 @@ public class IdentityEntry extends Transaction {
 
     private boolean verify() {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initVerify(publicKey);
             sig.update(publicKey.getEncoded());
             sig.update(name.getBytes());
-            sig.update(documentHash.toByteArray());
+            Hashing.update(sig, documentHash);
 
             return sig.verify(signature);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -69,27 +84,65 @@ public class IdentityEntry extends Transaction {
         return false;
     }
 
+    /**
+     * Check the signature, unless the SignatureCache holds it.
+     */
     @Override
     public boolean isValid() {
-        return verify();
+        return verifySignature(0);
     }
 
     @Override
-    public BlockChainInt getHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+    public int getSignatureCount() {
+        return 1;
+    }
+
+    @Override
+    public boolean verifySignature(int index) {
+        return signature != null && SignatureCache.getSignatureCache().verify(getHash(), index, this::verify);
+    }
+
+    /**
+     * An unsigned entry is written with an empty signature.
+     */
+    @Override
+    void writeFields(DataOutput out) throws IOException {
+        Codec.writePublicKey(out, publicKey);
+        Codec.writeBytes(out, name.getBytes(StandardCharsets.UTF_8));
+        Codec.writeHash(out, documentHash);
+        Codec.writeBytes(out, signature != null ? signature : new byte[0]);
+    }
 
-            hash.update(publicKey.getEncoded());
-            hash.update(name.getBytes());
-            hash.update(documentHash.toByteArray());
-            hash.update(signature);
+    static IdentityEntry readFields(long id, ByteBuffer in) throws IOException {
+        final PublicKey publicKey = Codec.readPublicKey(in);
+        final String name = new String(Codec.readBytes(in), StandardCharsets.UTF_8);
+        final BlockChainInt documentHash = Codec.readHash(in);
+        final byte[] signature = Codec.readBytes(in);
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        return new IdentityEntry(id, publicKey, name, documentHash, signature.length > 0 ? signature : null);
+    }
+
+    @Override
+    public BlockChainInt getHash() {
+        BlockChainInt hash = this.hash;
+
+        if (hash == null) {
+            hash = computeHash();
+            this.hash = hash;
         }
 
-        return BlockChainInt.ZERO;
+        return hash;
+    }
+
+    private BlockChainInt computeHash() {
+        final MessageDigest hash = Hashing.getDigest();
+
+        hash.update(publicKey.getEncoded());
+        hash.update(name.getBytes());
+        Hashing.update(hash, documentHash);
+        hash.update(signature);
+
+        return Hashing.digest(hash);
     }
 
     /**
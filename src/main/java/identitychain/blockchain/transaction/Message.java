@@ -1,10 +1,14 @@
 package identitychain.blockchain.transaction;
 
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Codec;
+import identitychain.blockchain.utilities.Hashing;
 import identitychain.blockchain.utilities.Utilities;
 
 import javax.crypto.*;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.security.*;
@@ -21,6 +25,9 @@ public class Message extends Transaction {
 
     private byte[] signature;
 
+    // The hash covers the signature, so it is computed on first use and dropped when the message is signed.
+    private transient volatile BlockChainInt hash;
+
     private Message(PublicKey sender, PublicKey receiver, byte[] encryptedAESKey, byte[] body, int time) {
         this.sender = sender;
         this.receiver = receiver;
@@ -29,6 +36,24 @@ public class Message extends Transaction {
         this.time = time;
     }
 
+    private Message(long id,
+                    PublicKey sender,
+                    PublicKey receiver,
+                    byte[] encryptedAESKey,
+                    byte[] body,
+                    int time,
+                    byte[] signature) {
+
+        super(id);
+
+        this.sender = sender;
+        this.receiver = receiver;
+        this.encryptedAESKey = encryptedAESKey;
+        this.body = body;
+        this.time = time;
+        this.signature = signature;
+    }
+
     public PublicKey getSender() {
         return sender;
     }
@@ -80,19 +105,18 @@ public class Message extends Transaction {
 
     public void sign(PrivateKey privateKey) {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initSign(privateKey);
-            sig.update(ByteBuffer.allocate(Long.BYTES).putLong(getID()).array());
+            Hashing.update(sig, getID());
             sig.update(sender.getEncoded());
             sig.update(receiver.getEncoded());
             sig.update(encryptedAESKey);
             sig.update(body);
-            sig.update(ByteBuffer.allocate(Integer.BYTES).putInt(time).array());
+            Hashing.update(sig, time);
 
             signature = sig.sign();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            hash = null;
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -100,22 +124,37 @@ public class Message extends Transaction {
         }
     }
 
+    /**
+     * Check the signature, unless the SignatureCache holds it.
+     */
     @Override
     public boolean isValid() {
+        return verifySignature(0);
+    }
+
+    @Override
+    public int getSignatureCount() {
+        return 1;
+    }
+
+    @Override
+    public boolean verifySignature(int index) {
+        return signature != null && SignatureCache.getSignatureCache().verify(getHash(), index, this::verify);
+    }
+
+    private boolean verify() {
         try {
-            Signature sig = Signature.getInstance("SHA256withRSA");
+            final Signature sig = Hashing.getSignature();
 
             sig.initVerify(sender);
-            sig.update(ByteBuffer.allocate(Long.BYTES).putLong(getID()).array());
+            Hashing.update(sig, getID());
             sig.update(sender.getEncoded());
             sig.update(receiver.getEncoded());
             sig.update(encryptedAESKey);
             sig.update(body);
-            sig.update(ByteBuffer.allocate(Integer.BYTES).putInt(time).array());
+            Hashing.update(sig, time);
 
             return sig.verify(signature);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
         } catch (InvalidKeyException e) {
             e.printStackTrace();
         } catch (SignatureException e) {
@@ -152,26 +191,54 @@ public class Message extends Transaction {
         return "";
     }
 
+    /**
+     * An unsigned message is written with an empty signature.
+     */
     @Override
-    public BlockChainInt getHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+    void writeFields(DataOutput out) throws IOException {
+        Codec.writePublicKey(out, sender);
+        Codec.writePublicKey(out, receiver);
+        Codec.writeBytes(out, encryptedAESKey);
+        Codec.writeBytes(out, body);
+        out.writeInt(time);
+        Codec.writeBytes(out, signature != null ? signature : new byte[0]);
+    }
 
+    static Message readFields(long id, ByteBuffer in) throws IOException {
+        final PublicKey sender = Codec.readPublicKey(in);
+        final PublicKey receiver = Codec.readPublicKey(in);
+        final byte[] encryptedAESKey = Codec.readBytes(in);
+        final byte[] body = Codec.readBytes(in);
+        final int time = Codec.readInt(in);
+        final byte[] signature = Codec.readBytes(in);
 
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(getID()).array());
-            hash.update(sender.getEncoded());
-            hash.update(receiver.getEncoded());
-            hash.update(encryptedAESKey);
-            hash.update(body);
-            hash.update(ByteBuffer.allocate(Integer.BYTES).putInt(time).array());
-            hash.update(signature);
+        return new Message(id, sender, receiver, encryptedAESKey, body, time, signature.length > 0 ? signature : null);
+    }
 
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+    @Override
+    public BlockChainInt getHash() {
+        BlockChainInt hash = this.hash;
+
+        if (hash == null) {
+            hash = computeHash();
+            this.hash = hash;
         }
 
-        return BlockChainInt.ZERO;
+        return hash;
+    }
+
+    private BlockChainInt computeHash() {
+        final MessageDigest hash = Hashing.getDigest();
+
+        Hashing.update(hash, getID());
+        hash.update(sender.getEncoded());
+        hash.update(receiver.getEncoded());
+        hash.update(encryptedAESKey);
+        hash.update(body);
+        Hashing.update(hash, time);
+        hash.update(signature);
+
+        return Hashing.digest(hash);
     }
 
     @Override
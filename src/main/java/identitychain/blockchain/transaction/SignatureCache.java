@@ -0,0 +1,190 @@
+package identitychain.blockchain.transaction;
+
+import identitychain.blockchain.utilities.BlockChainInt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded cache of the signatures that have been checked and found valid, shared by every path that checks them.
+ *
+ * A transaction is checked when it is relayed, when the miner accepts it and again when a block that includes it is
+ * validated, and each check is an RSA verify. A signature is identified by the hash of its transaction and its
+ * position in the transaction. The hash covers the signed content, the key and the signature, so a hit means the same
+ * signature was already verified over the same content. Only valid signatures are kept, so a forged signature is
+ * checked every time it is seen.
+ *
+ * The cache is split into SEGMENTS least recently used maps, each with its own lock, so threads verifying different
+ * transactions rarely wait for each other.
+ */
+public final class SignatureCache {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final int SEGMENTS = 16;
+    private static final SignatureCache CACHE = new SignatureCache(DEFAULT_CAPACITY);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private static final class Key {
+        private final BlockChainInt hash;
+        private final int index;
+
+        private Key(BlockChainInt hash, int index) {
+            this.hash = hash;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+
+            return index == key.index && hash.equals(key.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * hash.hashCode() + index;
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<Key, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private int capacity;
+        private long hits = 0;
+        private long misses = 0;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private SignatureCache(int capacity) {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+        }
+    }
+
+    /**
+     * Get the cache shared by every transaction in this process.
+     */
+    public static SignatureCache getSignatureCache() {
+        return CACHE;
+    }
+
+    /**
+     * Check a signature, unless it has already been found valid.
+     *
+     * @param hash The hash of the transaction the signature belongs to.
+     * @param index The position of the signature in the transaction.
+     * @param verify Checks the signature, when it is not cached.
+     * @return If the signature is valid.
+     */
+    public boolean verify(BlockChainInt hash, int index, BooleanSupplier verify) {
+        final Key key = new Key(hash, index);
+        final Segment segment = getSegment(key);
+
+        synchronized (segment) {
+            if (segment.get(key) != null) {
+                segment.hits++;
+                return true;
+            }
+
+            segment.misses++;
+        }
+
+        // The signature is checked outside the lock, so a slow verify does not hold up the other threads.
+        if (!verify.getAsBoolean()) {
+            return false;
+        }
+
+        synchronized (segment) {
+            segment.put(key, Boolean.TRUE);
+        }
+
+        return true;
+    }
+
+    /**
+     * Change the maximum number of signatures held, evicting the least recently used if there are too many.
+     *
+     * @param capacity The maximum number of signatures.
+     */
+    public void setCapacity(int capacity) {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.capacity = Math.max(1, capacity / SEGMENTS);
+
+                while (segment.size() > segment.capacity) {
+                    segment.remove(segment.keySet().iterator().next());
+                }
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        long hits = 0;
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        }
+
+        return hits;
+    }
+
+    public long getMissCount() {
+        long misses = 0;
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        }
+
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + "]";
+    }
+
+    private Segment getSegment(Key key) {
+        final int hashCode = key.hashCode();
+
+        return segments[(hashCode ^ (hashCode >>> 16)) & (SEGMENTS - 1)];
+    }
+}
@@ -3,7 +3,14 @@ package identitychain.blockchain.transaction;
 import identitychain.blockchain.merkle.MerkleTree;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -28,6 +35,27 @@ public abstract class Transaction implements MerkleTree {
 
     public abstract boolean isValid();
 
+    /**
+     * Get the number of signatures in this transaction, which verifySignature() checks one at a time.
+     */
+    public abstract int getSignatureCount();
+
+    /**
+     * Check one of the signatures of this transaction, through the SignatureCache.
+     *
+     * The signatures of a block can be checked in parallel this way, ahead of isValid(), which then finds them in
+     * the cache.
+     *
+     * @param index The position of the signature, below getSignatureCount().
+     * @return If the signature is valid.
+     */
+    public abstract boolean verifySignature(int index);
+
+    /**
+     * Write the fields of this transaction, other than its id, in the format read by TransactionCodec.
+     */
+    abstract void writeFields(DataOutput out) throws IOException;
+
     public long getTransactionFee() {
         return 0;
     }
@@ -55,4 +83,37 @@ public abstract class Transaction implements MerkleTree {
                 .append(id)
                 .toHashCode();
     }
+
+    /**
+     * Transactions are sent in the binary format of TransactionCodec rather than as serialized objects.
+     */
+    final Object writeReplace() throws ObjectStreamException {
+        try {
+            return new SerializedForm(TransactionCodec.encode(this));
+        } catch (IOException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("Transaction must be read through its serialized form.");
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bytes;
+
+        private SerializedForm(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return TransactionCodec.read(ByteBuffer.wrap(bytes));
+            } catch (IOException e) {
+                throw new InvalidObjectException(e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package identitychain.blockchain.transaction;
+
+import identitychain.blockchain.utilities.Codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary format of transactions.
+ *
+ * A transaction is a one byte type, its id, and then the fields of that type. Keys are X.509 encoded, amounts and
+ * lengths are variable length integers, and hashes are HASH_BYTES bytes.
+ */
+public final class TransactionCodec {
+    private static final byte COINBASE = 0;
+    private static final byte CURRENCY_TRANSACTION = 1;
+    private static final byte IDENTITY_ENTRY = 2;
+    private static final byte MESSAGE = 3;
+
+    private TransactionCodec() {
+
+    }
+
+    public static byte[] encode(Transaction transaction) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            write(out, transaction);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    public static void write(DataOutput out, Transaction transaction) throws IOException {
+        out.writeByte(getType(transaction));
+        out.writeLong(transaction.getID());
+        transaction.writeFields(out);
+    }
+
+    /**
+     * Read a transaction, leaving the buffer positioned after it.
+     *
+     * @param in The buffer to read from.
+     * @return The transaction.
+     * @throws IOException If the buffer does not start with a well formed transaction.
+     */
+    public static Transaction read(ByteBuffer in) throws IOException {
+        final byte type = Codec.readByte(in);
+        final long id = Codec.readLong(in);
+
+        switch (type) {
+            case COINBASE:
+                return Coinbase.readFields(id, in);
+            case CURRENCY_TRANSACTION:
+                return CurrencyTransaction.readFields(id, in);
+            case IDENTITY_ENTRY:
+                return IdentityEntry.readFields(id, in);
+            case MESSAGE:
+                return Message.readFields(id, in);
+            default:
+                throw new IOException("Unknown transaction type " + type);
+        }
+    }
+
+    private static byte getType(Transaction transaction) throws IOException {
+        if (transaction instanceof Coinbase) {
+            return COINBASE;
+        }
+
+        if (transaction instanceof CurrencyTransaction) {
+            return CURRENCY_TRANSACTION;
+        }
+
+        if (transaction instanceof IdentityEntry) {
+            return IDENTITY_ENTRY;
+        }
+
+        if (transaction instanceof Message) {
+            return MESSAGE;
+        }
+
+        throw new IOException("Cannot encode " + transaction.getClass().getName());
+    }
+}
@@ -1,38 +1,85 @@
 package identitychain.blockchain.utilities;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * Stores a 256 bit unsigned integer, keeping all leading zeros.
+ *
+ * The value is held in four longs, most significant first, so comparing, hashing and writing a value never allocates.
+ * BigInteger and double are only used for the difficulty math and for printing.
  */
 public class BlockChainInt extends Number implements Serializable, Comparable<BlockChainInt> {
-    public static final BlockChainInt ZERO = new BlockChainInt(new byte[0]);
-    public static final BlockChainInt ONE = new BlockChainInt(new byte[]{1});
-    public static final BlockChainInt MAX_TARGET = getMaxTarget();
-    public static final BlockChainInt MAX = getMaxValue();
+    public static final int BYTES = 32;
+    public static final int HASH_BYTES = 32;
 
-    public static final int BYTES = 64;
+    public static final BlockChainInt ZERO = new BlockChainInt(0L, 0L, 0L, 0L);
+    public static final BlockChainInt ONE = new BlockChainInt(0L, 0L, 0L, 1L);
+    public static final BlockChainInt MAX_TARGET = new BlockChainInt(0x00FF000000000000L, 0L, 0L, 0L);
+    public static final BlockChainInt MAX = new BlockChainInt(-1L, -1L, -1L, -1L);
 
-    private final byte[] value = new byte[BYTES];
-    private transient BigInteger bigInt = new BigInteger(1, value);
+    private static final int WORDS = BYTES / Long.BYTES;
 
-    private BlockChainInt(byte[] value) {
-        for (int i = 1; i <= value.length && i <= this.value.length; i++) {
-            this.value[this.value.length - i] = value[value.length - i];
-        }
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
 
-        bigInt = new BigInteger(1, value);
+    private BlockChainInt(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
     }
 
+    /**
+     * Read an unsigned value, most significant byte first. Only the last BYTES bytes are kept.
+     */
     public static BlockChainInt fromByteArray(byte[] value) {
-        return new BlockChainInt(value);
+        if (value.length == BYTES) {
+            return read(value, 0);
+        }
+
+        final long[] words = new long[WORDS];
+
+        for (int i = Math.max(0, value.length - BYTES); i < value.length; i++) {
+            final int word = (BYTES - value.length + i) / Long.BYTES;
+            words[word] = (words[word] << 8) | (value[i] & 0xFF);
+        }
+
+        return new BlockChainInt(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * Read BYTES bytes from the array, most significant byte first.
+     */
+    public static BlockChainInt read(byte[] value, int offset) {
+        return new BlockChainInt(
+                getLong(value, offset),
+                getLong(value, offset + Long.BYTES),
+                getLong(value, offset + 2 * Long.BYTES),
+                getLong(value, offset + 3 * Long.BYTES)
+        );
     }
 
+    /**
+     * Convert a BigInteger, saturating at ZERO and MAX if it does not fit in BYTES bytes.
+     */
     public static BlockChainInt fromBigInteger(BigInteger value) {
-        return new BlockChainInt(value.toByteArray());
+        if (value.signum() <= 0) {
+            return ZERO;
+        }
+
+        if (value.bitLength() > BYTES * 8) {
+            return MAX;
+        }
+
+        return fromByteArray(value.toByteArray());
     }
 
     public static BlockChainInt fromString(String value, int base) {
@@ -43,31 +90,64 @@ public class BlockChainInt extends Number implements Serializable, Comparable<Bl
         return fromBigInteger(BigDecimal.valueOf(value).toBigInteger());
     }
 
-    private static BlockChainInt getMaxValue() {
-        final byte[] max = new byte[64];
-
-        for (int i = 0; i < max.length; i++) {
-            max[i] = (byte) 0xFF;
+    /**
+     * Read an unsigned value stored in the given number of bytes, most significant byte first.
+     */
+    public static BlockChainInt read(ByteBuffer buffer, int bytes) {
+        if (bytes == BYTES) {
+            return new BlockChainInt(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
         }
 
-        return new BlockChainInt(max);
+        final byte[] value = new byte[bytes];
+        buffer.get(value);
+
+        return fromByteArray(value);
     }
 
-    private static BlockChainInt getMaxTarget() {
-        byte[] value = new byte[64];
-        value[1] = (byte) 0xFF;
+    /**
+     * Write the lowest bytes of this value, most significant byte first.
+     *
+     * @param buffer The buffer to write to.
+     * @param bytes The number of bytes to write, at most BYTES.
+     */
+    public void write(ByteBuffer buffer, int bytes) {
+        if (bytes == BYTES) {
+            buffer.putLong(word0).putLong(word1).putLong(word2).putLong(word3);
+            return;
+        }
+
+        for (int i = BYTES - bytes; i < BYTES; i++) {
+            buffer.put(getByte(i));
+        }
+    }
 
-        return new BlockChainInt(value);
+    /**
+     * Write all BYTES bytes of this value to the array, most significant byte first.
+     */
+    public void write(byte[] bytes, int offset) {
+        putLong(bytes, offset, word0);
+        putLong(bytes, offset + Long.BYTES, word1);
+        putLong(bytes, offset + 2 * Long.BYTES, word2);
+        putLong(bytes, offset + 3 * Long.BYTES, word3);
     }
 
     public byte[] toByteArray() {
-        return Arrays.copyOf(value, value.length);
+        final byte[] bytes = new byte[BYTES];
+        write(bytes, 0);
+
+        return bytes;
     }
 
     public BigInteger toBigInteger() {
-        return bigInt;
+        return new BigInteger(1, toByteArray());
     }
 
+    /**
+     * Get one of the bytes of the value, counting from the most significant.
+     */
+    public byte getByte(int index) {
+        return (byte) (getWord(index / Long.BYTES) >>> (8 * (Long.BYTES - 1 - index % Long.BYTES)));
+    }
 
     @Override
     public String toString() {
@@ -75,7 +155,7 @@ public class BlockChainInt extends Number implements Serializable, Comparable<Bl
     }
 
     public String toString(int base) {
-        return bigInt.toString(base);
+        return toBigInteger().toString(base);
     }
 
     @Override
@@ -83,13 +163,7 @@ public class BlockChainInt extends Number implements Serializable, Comparable<Bl
         if (o instanceof BlockChainInt) {
             final BlockChainInt bcInt = (BlockChainInt) o;
 
-            for (int i = 0; i < value.length; i++) {
-                if (value[i] != bcInt.value[i]) {
-                    return false;
-                }
-            }
-
-            return true;
+            return word0 == bcInt.word0 && word1 == bcInt.word1 && word2 == bcInt.word2 && word3 == bcInt.word3;
         }
 
         return false;
@@ -97,31 +171,109 @@ public class BlockChainInt extends Number implements Serializable, Comparable<Bl
 
     @Override
     public int hashCode() {
-        return bigInt.hashCode();
+        int hashCode = Long.hashCode(word0);
+        hashCode = 31 * hashCode + Long.hashCode(word1);
+        hashCode = 31 * hashCode + Long.hashCode(word2);
+
+        return 31 * hashCode + Long.hashCode(word3);
     }
 
     @Override
     public int compareTo(BlockChainInt blockChainInt) {
-        return bigInt.compareTo(blockChainInt.bigInt);
+        if (word0 != blockChainInt.word0) {
+            return Long.compareUnsigned(word0, blockChainInt.word0);
+        }
+
+        if (word1 != blockChainInt.word1) {
+            return Long.compareUnsigned(word1, blockChainInt.word1);
+        }
+
+        if (word2 != blockChainInt.word2) {
+            return Long.compareUnsigned(word2, blockChainInt.word2);
+        }
+
+        return Long.compareUnsigned(word3, blockChainInt.word3);
     }
 
     @Override
     public int intValue() {
-        return bigInt.intValue();
+        return (int) word3;
     }
 
     @Override
     public long longValue() {
-        return bigInt.longValue();
+        return word3;
     }
 
     @Override
     public float floatValue() {
-        return bigInt.floatValue();
+        return toBigInteger().floatValue();
     }
 
     @Override
     public double doubleValue() {
-        return bigInt.doubleValue();
+        return toBigInteger().doubleValue();
+    }
+
+    private long getWord(int index) {
+        switch (index) {
+            case 0:
+                return word0;
+            case 1:
+                return word1;
+            case 2:
+                return word2;
+            default:
+                return word3;
+        }
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Serialize only the significant bytes, since most values are far smaller than BYTES bytes.
+     */
+    private Object writeReplace() {
+        final byte[] bytes = toByteArray();
+        int start = 0;
+
+        while (start < bytes.length - 1 && bytes[start] == 0) {
+            start++;
+        }
+
+        return new SerializedForm(Arrays.copyOfRange(bytes, start, bytes.length));
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("BlockChainInt must be read through its serialized form.");
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] value;
+
+        private SerializedForm(byte[] value) {
+            this.value = value;
+        }
+
+        private Object readResolve() {
+            return fromByteArray(value);
+        }
     }
 }
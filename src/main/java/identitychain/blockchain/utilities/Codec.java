@@ -0,0 +1,140 @@
+package identitychain.blockchain.utilities;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Primitives of the binary format used to store and send blocks and transactions.
+ *
+ * Values are written to a DataOutput and read back from a ByteBuffer, so that stored records can be decoded directly
+ * from a mapped segment. Every read throws an IOException if the buffer does not hold a well formed value.
+ */
+public final class Codec {
+
+    private Codec() {
+
+    }
+
+    /**
+     * Write a non-negative value in base 128, least significant group first.
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(ByteBuffer in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Variable length integer is too long.");
+    }
+
+    /**
+     * Write a value that may be negative, zigzag encoded so that small magnitudes stay short.
+     */
+    public static void writeSignedVarLong(DataOutput out, long value) throws IOException {
+        writeVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    public static long readSignedVarLong(ByteBuffer in) throws IOException {
+        final long value = readVarLong(in);
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static int readLength(ByteBuffer in) throws IOException {
+        final long length = readVarLong(in);
+
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("Length " + length + " is past the end of the buffer.");
+        }
+
+        return (int) length;
+    }
+
+    public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public static byte[] readBytes(ByteBuffer in) throws IOException {
+        final byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Write a hash in HASH_BYTES bytes.
+     */
+    public static void writeHash(DataOutput out, BlockChainInt hash) throws IOException {
+        out.write(hash.toByteArray(), BlockChainInt.BYTES - BlockChainInt.HASH_BYTES, BlockChainInt.HASH_BYTES);
+    }
+
+    public static BlockChainInt readHash(ByteBuffer in) throws IOException {
+        try {
+            return BlockChainInt.read(in, BlockChainInt.HASH_BYTES);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Hash is past the end of the buffer.", e);
+        }
+    }
+
+    /**
+     * Write an RSA public key as its X.509 encoding.
+     */
+    public static void writePublicKey(DataOutput out, PublicKey key) throws IOException {
+        writeBytes(out, key.getEncoded());
+    }
+
+    public static PublicKey readPublicKey(ByteBuffer in) throws IOException {
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(readBytes(in)));
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IOException("Could not decode public key.", e);
+        }
+    }
+
+    public static byte readByte(ByteBuffer in) throws IOException {
+        if (!in.hasRemaining()) {
+            throw new IOException("Unexpected end of buffer.");
+        }
+
+        return in.get();
+    }
+
+    public static int readInt(ByteBuffer in) throws IOException {
+        if (in.remaining() < Integer.BYTES) {
+            throw new IOException("Unexpected end of buffer.");
+        }
+
+        return in.getInt();
+    }
+
+    public static long readLong(ByteBuffer in) throws IOException {
+        if (in.remaining() < Long.BYTES) {
+            throw new IOException("Unexpected end of buffer.");
+        }
+
+        return in.getLong();
+    }
+}
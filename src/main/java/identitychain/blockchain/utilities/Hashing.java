@@ -0,0 +1,140 @@
+package identitychain.blockchain.utilities;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.SignatureException;
+
+/**
+ * The SHA-256 digests and SHA256withRSA signers used to hash and sign blocks and transactions, kept one per thread.
+ *
+ * Looking up a provider for every hash was most of the cost of a small hash, and wrapping each long and int in a new
+ * ByteBuffer made hashing one of the largest sources of garbage. Each thread reuses its own digest, signer and scratch
+ * buffers instead.
+ *
+ * A thread has only one digest, so a hash must not be started while another is being computed on the same thread. Any
+ * hashes that go into a hash, such as the hashes of a transaction's inputs, are found before getDigest() is called.
+ */
+public final class Hashing {
+    public static final int SCRATCH_BYTES = 256;
+
+    private static final ThreadLocal<Hashing> HASHING = ThreadLocal.withInitial(Hashing::new);
+
+    private final MessageDigest digest;
+    private final Signature signature;
+    private final byte[] number = new byte[BlockChainInt.BYTES];
+    private final ByteBuffer numberBuffer = ByteBuffer.wrap(number);
+    private final byte[] hash = new byte[BlockChainInt.HASH_BYTES];
+    private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_BYTES);
+
+    private Hashing() {
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+            signature = Signature.getInstance("SHA256withRSA");
+        } catch (GeneralSecurityException e) {
+            // Every Java platform is required to support both.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get this thread's SHA-256 digest, reset to start a new hash.
+     */
+    public static MessageDigest getDigest() {
+        final MessageDigest digest = HASHING.get().digest;
+        digest.reset();
+
+        return digest;
+    }
+
+    /**
+     * Get this thread's SHA256withRSA signature, which must be given a key with initSign() or initVerify() before it
+     * is used.
+     */
+    public static Signature getSignature() {
+        return HASHING.get().signature;
+    }
+
+    /**
+     * Get this thread's scratch buffer of SCRATCH_BYTES, cleared, for writing data that is about to be hashed.
+     *
+     * The buffer is separate from the one used by the update() methods, so a header written to it can be hashed with
+     * them.
+     */
+    public static ByteBuffer getScratch() {
+        final ByteBuffer scratch = HASHING.get().scratch;
+        scratch.clear();
+
+        return scratch;
+    }
+
+    public static void update(MessageDigest digest, long value) {
+        final Hashing hashing = HASHING.get();
+
+        hashing.numberBuffer.putLong(0, value);
+        digest.update(hashing.number, 0, Long.BYTES);
+    }
+
+    public static void update(MessageDigest digest, int value) {
+        final Hashing hashing = HASHING.get();
+
+        hashing.numberBuffer.putInt(0, value);
+        digest.update(hashing.number, 0, Integer.BYTES);
+    }
+
+    /**
+     * Add all BYTES bytes of the value to the hash, the same bytes as toByteArray() returns.
+     */
+    public static void update(MessageDigest digest, BlockChainInt value) {
+        final Hashing hashing = HASHING.get();
+
+        value.write(hashing.number, 0);
+        digest.update(hashing.number, 0, BlockChainInt.BYTES);
+    }
+
+    public static void update(Signature signature, long value) throws SignatureException {
+        final Hashing hashing = HASHING.get();
+
+        hashing.numberBuffer.putLong(0, value);
+        signature.update(hashing.number, 0, Long.BYTES);
+    }
+
+    public static void update(Signature signature, int value) throws SignatureException {
+        final Hashing hashing = HASHING.get();
+
+        hashing.numberBuffer.putInt(0, value);
+        signature.update(hashing.number, 0, Integer.BYTES);
+    }
+
+    /**
+     * Add all BYTES bytes of the value to the signature, the same bytes as toByteArray() returns.
+     */
+    public static void update(Signature signature, BlockChainInt value) throws SignatureException {
+        final Hashing hashing = HASHING.get();
+
+        value.write(hashing.number, 0);
+        signature.update(hashing.number, 0, BlockChainInt.BYTES);
+    }
+
+    /**
+     * Finish the hash.
+     *
+     * @param digest The digest from getDigest().
+     * @return The hash, or ZERO if the digest could not be finished.
+     */
+    public static BlockChainInt digest(MessageDigest digest) {
+        final Hashing hashing = HASHING.get();
+
+        try {
+            digest.digest(hashing.hash, 0, hashing.hash.length);
+
+            return BlockChainInt.read(hashing.hash, 0);
+        } catch (DigestException e) {
+            e.printStackTrace();
+        }
+
+        return BlockChainInt.ZERO;
+    }
+}
@@ -0,0 +1,330 @@
+package identitychain.blockchain.utilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * A compressed trie of names, for prefix and approximate searches.
+ *
+ * Each edge is labelled with a run of characters, so a chain of nodes with a single child is stored as one node.
+ * A name may be added more than once, and stays in the trie until it has been removed as many times.
+ *
+ * Children are kept in character order, so prefix results come back sorted and the search stops after the requested
+ * number of names. Approximate searches walk the trie once, computing a row of the edit distance table per
+ * character and skipping any subtree where every entry of the row is over the limit.
+ */
+public final class NameTrie {
+    private final Node root = new Node("");
+    private int size = 0;
+
+    private static final class Node {
+        private String label;
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        private int count = 0;
+
+        private Node(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * A name and its edit distance from the name searched for.
+     */
+    public static final class Match {
+        private final String name;
+        private final int distance;
+
+        private Match(String name, int distance) {
+            this.name = name;
+            this.distance = distance;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * Get the number of distinct names in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String name) {
+        final Node node = find(name);
+
+        return node != null && node.count > 0;
+    }
+
+    public void add(String name) {
+        Node node = root;
+        int index = 0;
+
+        while (index < name.length()) {
+            final Node child = node.children.get(name.charAt(index));
+
+            if (child == null) {
+                final Node leaf = new Node(name.substring(index));
+                node.children.put(name.charAt(index), leaf);
+                node = leaf;
+                break;
+            }
+
+            final int common = commonPrefix(child.label, name, index);
+
+            if (common < child.label.length()) {
+                split(node, child, common);
+                node = node.children.get(name.charAt(index));
+            } else {
+                node = child;
+            }
+
+            index += common;
+        }
+
+        if (node.count == 0) {
+            size++;
+        }
+
+        node.count++;
+    }
+
+    /**
+     * Remove one occurrence of the name.
+     *
+     * @return If the name was in the trie.
+     */
+    public boolean remove(String name) {
+        final List<Node> path = new ArrayList<>();
+        Node node = root;
+        int index = 0;
+        path.add(node);
+
+        while (index < name.length()) {
+            node = node.children.get(name.charAt(index));
+
+            if (node == null || !name.startsWith(node.label, index)) {
+                return false;
+            }
+
+            index += node.label.length();
+            path.add(node);
+        }
+
+        if (node.count == 0) {
+            return false;
+        }
+
+        node.count--;
+
+        if (node.count == 0) {
+            size--;
+            prune(path);
+        }
+
+        return true;
+    }
+
+    /**
+     * Find the names that start with the given prefix.
+     *
+     * @param prefix The start of the names.
+     * @param limit The most names to return.
+     * @return The names in character order.
+     */
+    public List<String> findWithPrefix(String prefix, int limit) {
+        final List<String> names = new ArrayList<>();
+        Node node = root;
+        int index = 0;
+
+        while (index < prefix.length()) {
+            node = node.children.get(prefix.charAt(index));
+
+            if (node == null) {
+                return names;
+            }
+
+            final int common = commonPrefix(node.label, prefix, index);
+
+            if (common < node.label.length() && index + common < prefix.length()) {
+                return names;
+            }
+
+            index += node.label.length();
+        }
+
+        final StringBuilder name = new StringBuilder(prefix);
+        name.append(node.label, node.label.length() - (index - prefix.length()), node.label.length());
+        collect(node, name, names, limit);
+
+        return names;
+    }
+
+    /**
+     * Find the names within the given edit distance of a name.
+     *
+     * @param name The name to compare with.
+     * @param maxDistance The most insertions, deletions and substitutions a match may differ by.
+     * @param limit The most names to return.
+     * @return The closest names, ordered by distance and then by name.
+     */
+    public List<Match> findSimilar(String name, int maxDistance, int limit) {
+        final Comparator<Match> closest = Comparator.comparingInt(Match::getDistance).thenComparing(Match::getName);
+        final PriorityQueue<Match> best = new PriorityQueue<>(closest.reversed());
+
+        final int[] row = new int[name.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+
+        search(root, new StringBuilder(), name, row, maxDistance, limit, best);
+
+        final List<Match> matches = new ArrayList<>(best);
+        matches.sort(closest);
+
+        return matches;
+    }
+
+    private void search(Node node,
+                        StringBuilder prefix,
+                        String name,
+                        int[] previous,
+                        int maxDistance,
+                        int limit,
+                        PriorityQueue<Match> best) {
+
+        final int length = prefix.length();
+        int[] row = previous;
+
+        for (int i = 0; i < node.label.length(); i++) {
+            final char c = node.label.charAt(i);
+            final int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int min = next[0];
+
+            for (int j = 1; j < row.length; j++) {
+                final int substitution = row[j - 1] + (name.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitution, Math.min(row[j] + 1, next[j - 1] + 1));
+                min = Math.min(min, next[j]);
+            }
+
+            prefix.append(c);
+            row = next;
+
+            if (min > maxDistance || (best.size() >= limit && min > best.peek().getDistance())) {
+                prefix.setLength(length);
+                return;
+            }
+        }
+
+        final int distance = row[row.length - 1];
+
+        if (node.count > 0 && distance <= maxDistance) {
+            best.add(new Match(prefix.toString(), distance));
+
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+
+        for (Node child : node.children.values()) {
+            search(child, prefix, name, row, maxDistance, limit, best);
+        }
+
+        prefix.setLength(length);
+    }
+
+    private static void collect(Node node, StringBuilder name, List<String> names, int limit) {
+        if (names.size() >= limit) {
+            return;
+        }
+
+        if (node.count > 0) {
+            names.add(name.toString());
+        }
+
+        for (Node child : node.children.values()) {
+            final int length = name.length();
+            name.append(child.label);
+            collect(child, name, names, limit);
+            name.setLength(length);
+        }
+    }
+
+    private Node find(String name) {
+        Node node = root;
+        int index = 0;
+
+        while (index < name.length()) {
+            node = node.children.get(name.charAt(index));
+
+            if (node == null || !name.startsWith(node.label, index)) {
+                return null;
+            }
+
+            index += node.label.length();
+        }
+
+        return node;
+    }
+
+    /**
+     * Split the child's edge after the given number of characters, putting a new node in between.
+     */
+    private static void split(Node parent, Node child, int at) {
+        final Node middle = new Node(child.label.substring(0, at));
+
+        child.label = child.label.substring(at);
+        middle.children.put(child.label.charAt(0), child);
+        parent.children.put(middle.label.charAt(0), middle);
+    }
+
+    /**
+     * Remove the nodes of a removed name that no longer lead to a name, and merge a node left with one child into it.
+     */
+    private static void prune(List<Node> path) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            final Node node = path.get(i);
+            final Node parent = path.get(i - 1);
+
+            if (node.count > 0) {
+                break;
+            }
+
+            if (node.children.isEmpty()) {
+                parent.children.remove(node.label.charAt(0));
+                continue;
+            }
+
+            if (node.children.size() == 1) {
+                final Map.Entry<Character, Node> only = node.children.firstEntry();
+                final Node child = only.getValue();
+
+                child.label = node.label + child.label;
+                parent.children.put(child.label.charAt(0), child);
+            }
+
+            break;
+        }
+    }
+
+    private static int commonPrefix(String label, String name, int start) {
+        final int length = Math.min(label.length(), name.length() - start);
+        int common = 0;
+
+        while (common < length && label.charAt(common) == name.charAt(start + common)) {
+            common++;
+        }
+
+        return common;
+    }
+}
@@ -2,8 +2,10 @@ package identitychain.client;
 
 import identitychain.blockchain.BlockChain;
 import identitychain.blockchain.BlockChainManager;
+import identitychain.blockchain.ChainVerifier;
 import identitychain.blockchain.transaction.*;
 import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Hashing;
 import identitychain.mining.BlockChainMiner;
 import identitychain.network.BlockChainRouter;
 import identitychain.network.BlockChainServer;
@@ -11,7 +13,6 @@ import identitychain.network.NetworkNode;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.*;
-import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -19,6 +20,9 @@ import java.util.*;
 import java.util.concurrent.CountDownLatch;
 
 public class Client implements Observer {
+    private static final int SEARCH_LIMIT = 10;
+    private static final int SEARCH_DISTANCE = 2;
+
     private final Random random = new Random();
 
     private final BlockChainManager manager;
@@ -38,6 +42,9 @@ public class Client implements Observer {
         this.miner = miner;
         this.blockChain = manager.getBlockChain();
         nameService = new NameService(blockChain);
+
+        manager.addObserver(this);
+        manager.addObserver(nameService);
     }
 
     public static void main(String[] args) {
@@ -105,7 +112,7 @@ public class Client implements Observer {
                 )
         );
 
-        final BlockChainMiner miner = new BlockChainMiner(manager, Integer.parseInt("NUM_MINING_THREADS"));
+        final BlockChainMiner miner = new BlockChainMiner(manager, Integer.parseInt(properties.getProperty("NUM_MINING_THREADS")));
         final BlockChainServer server = new BlockChainServer(
                 Integer.parseInt(properties.getProperty("PORT")),
                         manager,
@@ -211,23 +218,24 @@ public class Client implements Observer {
 
         final long id = random.nextLong();
 
-        BlockChainInt outputHash = null;
+        // The output hashes are found before the digest is taken, since computing them uses it.
+        final List<BlockChainInt> outputHashes = new ArrayList<>();
 
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < outputs.size(); i++) {
+            outputHashes.add(outputs.get(i).getHash());
+        }
 
-            // Add the id to the hash to prevent duplicate transactions.
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(id));
+        final MessageDigest hash = Hashing.getDigest();
 
-            for (int i = 0; i < outputs.size(); i++) {
-                hash.update(outputs.get(i).getHash().toByteArray());
-            }
+        // Add the id to the hash to prevent duplicate transactions.
+        Hashing.update(hash, id);
 
-            outputHash = BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        for (BlockChainInt hashOfOutput : outputHashes) {
+            Hashing.update(hash, hashOfOutput);
         }
 
+        final BlockChainInt outputHash = Hashing.digest(hash);
+
 
 
         final CurrencyTransactionInput input = CurrencyTransactionInput.generateInput(
@@ -298,6 +306,30 @@ public class Client implements Observer {
                 }
             }
         }
+        else if (args[0].equals("search")) {
+            if (args.length < 2) {
+                System.out.println("Improper format, usage: search [partial name]");
+                return;
+            }
+
+            List<String> names = nameService.findNames(args[1], SEARCH_LIMIT);
+
+            if (names.isEmpty()) {
+                names = nameService.findSimilarNames(args[1], SEARCH_DISTANCE, SEARCH_LIMIT);
+            }
+
+            if (names.isEmpty()) {
+                System.out.println("No names match " + args[1] + ".");
+            }
+
+            for (String name : names) {
+                System.out.println(name);
+            }
+        }
+        else if (args[0].equals("verify")) {
+            System.out.println("Verifying every block...");
+            System.out.println(new ChainVerifier().verify(blockChain));
+        }
         else if (args[0].equals("exit")) {
             final CountDownLatch latch = new CountDownLatch(3);
 
@@ -342,6 +374,13 @@ public class Client implements Observer {
 
         if (keys.size() == 0) {
             System.out.println("Could not find name " + name + ".");
+
+            final List<String> suggestions = nameService.findSimilarNames(name, SEARCH_DISTANCE, SEARCH_LIMIT);
+
+            if (!suggestions.isEmpty()) {
+                System.out.println("Did you mean: " + String.join(", ", suggestions));
+            }
+
             return null;
         }
 
@@ -1,20 +1,45 @@
 package identitychain.client;
 
 import identitychain.blockchain.BlockChain;
+import identitychain.blockchain.BlockChainEvent;
 import identitychain.blockchain.BlockChainManager;
 import identitychain.blockchain.transaction.IdentityEntry;
+import identitychain.blockchain.utilities.NameTrie;
 
 import java.security.PublicKey;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Resolves names to the public keys of their IdentityEntries, caching the names looked up most recently.
+ *
+ * The NameService observes its BlockChain, and when a block is pushed or disconnected it reloads the cached names
+ * that the block's IdentityEntries use, so a cached name never lags the chain and never keeps a key from a branch
+ * that was reorganized away. The cache holds at most its capacity of names, evicting the least recently used.
+ */
 public class NameService implements Observer {
+    public static final int DEFAULT_CAPACITY = 10000;
+
     private BlockChain blockChain;
 
-    private final Map<String, List<PublicKey>> nameMap = new HashMap<>();
+    private final int capacity;
+    private final LinkedHashMap<String, List<PublicKey>> nameMap =
+            new LinkedHashMap<String, List<PublicKey>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<PublicKey>> eldest) {
+                    return size() > capacity;
+                }
+            };
 
     public NameService(BlockChain blockChain) {
+        this(blockChain, DEFAULT_CAPACITY);
+    }
+
+    public NameService(BlockChain blockChain, int capacity) {
         this.blockChain = blockChain;
+        this.capacity = capacity;
+
+        blockChain.addObserver(this);
     }
 
     /**
@@ -22,7 +47,7 @@ public class NameService implements Observer {
      * @param name
      * @return
      */
-    public List<PublicKey> getKeys(String name) {
+    public synchronized List<PublicKey> getKeys(String name) {
         if (!nameMap.containsKey(name)) {
             loadKeys(name);
         }
@@ -30,19 +55,73 @@ public class NameService implements Observer {
         return nameMap.get(name);
     }
 
-    public void loadKeys(String name) {
-        nameMap.put(
-                name,
-                blockChain.getAllIdentitiesWithName(name).stream()
-                        .map(IdentityEntry::getPublicKey)
-                        .collect(Collectors.toList())
-        );
+    public synchronized void loadKeys(String name) {
+        nameMap.put(name, lookUp(name));
+    }
+
+    /**
+     * Get the number of names cached.
+     */
+    public synchronized int getCacheSize() {
+        return nameMap.size();
+    }
+
+    /**
+     * Find the names that start with a partial name.
+     *
+     * @param prefix The start of the names.
+     * @param limit The most names to return.
+     * @return The names in character order.
+     */
+    public List<String> findNames(String prefix, int limit) {
+        return blockChain.findNamesWithPrefix(prefix, limit);
+    }
+
+    /**
+     * Find the names that are close to a name, for suggestions when it is mistyped.
+     *
+     * @param name The name to compare with.
+     * @param maxDistance The most characters a suggestion may differ by.
+     * @param limit The most names to return.
+     * @return The closest names first.
+     */
+    public List<String> findSimilarNames(String name, int maxDistance, int limit) {
+        return blockChain.findSimilarNames(name, maxDistance, limit).stream()
+                .map(NameTrie.Match::getName)
+                .collect(Collectors.toList());
     }
 
     @Override
-    public void update(Observable o, Object arg) {
+    public synchronized void update(Observable o, Object arg) {
         if (o instanceof BlockChainManager) {
-            blockChain = ((BlockChainManager) o).getBlockChain();
+            final BlockChain newChain = ((BlockChainManager) o).getBlockChain();
+
+            if (newChain != blockChain) {
+                blockChain.deleteObserver(this);
+                blockChain = newChain;
+                blockChain.addObserver(this);
+                nameMap.clear();
+            }
+        }
+        else if (o == blockChain && arg instanceof BlockChainEvent) {
+            for (IdentityEntry entry : ((BlockChainEvent) arg).getIdentities()) {
+                refresh(entry.getName());
+            }
+        }
+    }
+
+    /**
+     * Reload a name if it is cached.
+     */
+    private void refresh(String name) {
+        if (nameMap.containsKey(name)) {
+            nameMap.put(name, lookUp(name));
         }
     }
+
+    private List<PublicKey> lookUp(String name) {
+        return blockChain.getAllIdentitiesWithName(name).stream()
+                .map(IdentityEntry::getPublicKey)
+                .collect(Collectors.toList());
+    }
 }
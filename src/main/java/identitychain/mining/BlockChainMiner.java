@@ -14,6 +14,7 @@ import identitychain.network.BlockChainRouter;
 
 import java.security.PublicKey;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -28,7 +29,7 @@ public class BlockChainMiner extends Observable implements Observer {
     private final MiningCoordinator coordinator = new MiningCoordinator();
 
     private final Lock miningLock = new ReentrantLock();
-    private final Set<MiningBlock> activeMiners = new HashSet<>();
+    private final Set<MiningBlock> activeMiners = ConcurrentHashMap.newKeySet();
 
     public BlockChainMiner(BlockChainManager manager, int concurrency) {
         this.manager = manager;
@@ -87,29 +88,39 @@ public class BlockChainMiner extends Observable implements Observer {
                 final List<Transaction> transactionList = getNextTransactionList();
                 final List<CurrencyTransactionOutput> coinbaseOut = generateCoinbaseOutput(transactionList);
                 final BlockChainInt previousBlockHash = blockChain.getHeadHash();
+                final BlockChainInt target = manager.getCurrentTarget();
+                final long size = blockChain.getSize();
 
-                coordinator.reset();
+                // The threads share a template for each extra nonce, and take disjoint ranges of nonces over it.
+                coordinator.reset(extraNonce -> {
+                    final List<Transaction> blockTransactionList = new ArrayList<>();
+                    blockTransactionList.add(new Coinbase(size, coinbaseOut, extraNonce));
+                    blockTransactionList.addAll(transactionList);
+
+                    return MerkleTreeBuilder.buildMerkleTree(blockTransactionList);
+                });
                 final CountDownLatch countDownLatch = new CountDownLatch(concurrency);
 
                 for (int i = 0; i < concurrency; i++) {
                     Thread mine = new Thread(() -> {
-                        while (!coordinator.isFinished() && !coordinator.hasOverflowed()) {
-                            final List<Transaction> blockTransactionList = new ArrayList<>();
-                            blockTransactionList.add(
-                                    new Coinbase(blockChain.getSize(), coinbaseOut, coordinator.getExtraNonce())
-                            );
-                            blockTransactionList.addAll(transactionList);
-
-                            MiningBlock block = new MiningBlock(
-                                    previousBlockHash,
-                                    manager.getCurrentTarget(),
-                                    MerkleTreeBuilder.buildMerkleTree(blockTransactionList)
-                            );
+                        while (!coordinator.isFinished()) {
+                            final MiningCoordinator.Range range = coordinator.getNextRange();
+
+                            if (range == null) {
+                                break;
+                            }
+
+                            MiningBlock block = new MiningBlock(previousBlockHash, target, range.getMerkleRoot());
 
                             activeMiners.add(block);
 
+                            // The miner may have been restarted while the block was being set up.
+                            if (coordinator.isFinished()) {
+                                block.stop();
+                            }
+
                             block.addObserver(this);
-                            block.startMining();
+                            block.startMining(range.getFirst(), range.getLast());
 
                             activeMiners.remove(block);
                         }
@@ -249,11 +260,7 @@ public class BlockChainMiner extends Observable implements Observer {
     }
 
     private void removeDuplicateTransactions() {
-        final Set<Transaction> transactionSet = new HashSet<>();
-        transactionSet.addAll(transactions);
-        for (Block block : blockChain) {
-            transactionSet.removeAll(block.getTransactions());
-        }
+        transactions.removeIf(transaction -> blockChain.containsTransaction(transaction.getHash()));
     }
 
     @Override
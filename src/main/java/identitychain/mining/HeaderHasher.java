@@ -0,0 +1,204 @@
+package identitychain.mining;
+
+import identitychain.blockchain.Block;
+import identitychain.blockchain.utilities.BlockChainInt;
+
+/**
+ * Computes the SHA-256 hash of a block header for one nonce after another, redoing only the compressions that the
+ * nonce is part of.
+ *
+ * The header is padded once, and the 64 byte blocks that come before the nonce are compressed once into a midstate.
+ * The rounds of the block that holds the nonce which only use words before the nonce are also run once. Each nonce
+ * is written into the padded header, and only the rest of the compressions are done from there. With the nonce last
+ * in the header, that is the last 55 rounds of the one final block. Nothing is allocated per nonce, and the hash is
+ * compared to the target word by word.
+ *
+ * This gives the same hash as MessageDigest over the header, which is what Block.isValid() checks.
+ */
+final class HeaderHasher {
+    private static final int BLOCK_BYTES = 64;
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] INITIAL_STATE = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private final byte[] message;
+    private final int nonceBlock;
+    private final int fixedRounds;
+    private final int[] midstate = new int[8];
+    private final int[] fixedState = new int[8];
+    private final int[] state = new int[8];
+    private final int[] target = new int[8];
+    private final int[] w = new int[64];
+
+    /**
+     * @param header The header of the block, HEADER_SIZE bytes, with any nonce.
+     * @param target The target the hash has to be below.
+     */
+    HeaderHasher(byte[] header, BlockChainInt target) {
+        final int blocks = (header.length + 1 + Long.BYTES + BLOCK_BYTES - 1) / BLOCK_BYTES;
+        final long bits = header.length * 8L;
+
+        message = new byte[blocks * BLOCK_BYTES];
+        System.arraycopy(header, 0, message, 0, header.length);
+        message[header.length] = (byte) 0x80;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            message[message.length - 1 - i] = (byte) (bits >>> (8 * i));
+        }
+
+        nonceBlock = Block.NONCE_OFFSET / BLOCK_BYTES;
+
+        System.arraycopy(INITIAL_STATE, 0, midstate, 0, midstate.length);
+        for (int block = 0; block < nonceBlock; block++) {
+            compress(midstate, block * BLOCK_BYTES);
+        }
+
+        // The first rounds of the nonce's block only use the words before the nonce.
+        fixedRounds = (Block.NONCE_OFFSET % BLOCK_BYTES) / Integer.BYTES;
+        expand(nonceBlock * BLOCK_BYTES);
+        System.arraycopy(midstate, 0, fixedState, 0, fixedState.length);
+        rounds(fixedState, 0, fixedRounds);
+
+        final byte[] targetBytes = target.toByteArray();
+        for (int i = 0; i < this.target.length; i++) {
+            this.target[i] = readInt(targetBytes, i * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Hash the header with the given nonce.
+     *
+     * @return If the hash is below the target.
+     */
+    boolean hash(long nonce) {
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            message[Block.NONCE_OFFSET + i] = (byte) nonce;
+            nonce >>>= 8;
+        }
+
+        System.arraycopy(fixedState, 0, state, 0, state.length);
+        expand(nonceBlock * BLOCK_BYTES);
+        rounds(state, fixedRounds, 64);
+        add(state, midstate);
+
+        for (int block = nonceBlock + 1; block * BLOCK_BYTES < message.length; block++) {
+            compress(state, block * BLOCK_BYTES);
+        }
+
+        for (int i = 0; i < state.length; i++) {
+            if (state[i] != target[i]) {
+                return Integer.compareUnsigned(state[i], target[i]) < 0;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the hash of the last nonce given to hash().
+     */
+    BlockChainInt getHash() {
+        final byte[] hash = new byte[BlockChainInt.HASH_BYTES];
+
+        for (int i = 0; i < state.length; i++) {
+            final int word = state[i];
+
+            hash[i * 4] = (byte) (word >>> 24);
+            hash[i * 4 + 1] = (byte) (word >>> 16);
+            hash[i * 4 + 2] = (byte) (word >>> 8);
+            hash[i * 4 + 3] = (byte) word;
+        }
+
+        return BlockChainInt.read(hash, 0);
+    }
+
+    private void compress(int[] state, int offset) {
+        final int[] initial = state.clone();
+
+        expand(offset);
+        rounds(state, 0, 64);
+        add(state, initial);
+    }
+
+    /**
+     * Fill the message schedule from the 64 byte block at the offset.
+     */
+    private void expand(int offset) {
+        for (int i = 0; i < 16; i++) {
+            w[i] = readInt(message, offset + i * Integer.BYTES);
+        }
+
+        for (int i = 16; i < 64; i++) {
+            final int s0 = Integer.rotateRight(w[i - 15], 7) ^ Integer.rotateRight(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+            final int s1 = Integer.rotateRight(w[i - 2], 17) ^ Integer.rotateRight(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+    }
+
+    /**
+     * Run the rounds from first up to last on the working variables, a to h, with the current message schedule.
+     */
+    private void rounds(int[] vars, int first, int last) {
+        int a = vars[0];
+        int b = vars[1];
+        int c = vars[2];
+        int d = vars[3];
+        int e = vars[4];
+        int f = vars[5];
+        int g = vars[6];
+        int h = vars[7];
+
+        for (int i = first; i < last; i++) {
+            final int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            final int ch = (e & f) ^ (~e & g);
+            final int t1 = h + s1 + ch + K[i] + w[i];
+            final int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            final int maj = (a & b) ^ (a & c) ^ (b & c);
+            final int t2 = s0 + maj;
+
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+
+        vars[0] = a;
+        vars[1] = b;
+        vars[2] = c;
+        vars[3] = d;
+        vars[4] = e;
+        vars[5] = f;
+        vars[6] = g;
+        vars[7] = h;
+    }
+
+    private static void add(int[] state, int[] initial) {
+        for (int i = 0; i < state.length; i++) {
+            state[i] += initial[i];
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+}
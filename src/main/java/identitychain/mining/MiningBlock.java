@@ -5,8 +5,6 @@ import identitychain.blockchain.merkle.MerkleTree;
 import identitychain.blockchain.utilities.BlockChainInt;
 
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Observable;
 
 public class MiningBlock extends Observable {
@@ -17,7 +15,7 @@ public class MiningBlock extends Observable {
     private final int time;
     private final MerkleTree merkleRoot;
 
-    private boolean stopped;
+    private volatile boolean stopped;
 
     public MiningBlock(BlockChainInt previousBlockHash, BlockChainInt target, MerkleTree merkleRoot) {
 
@@ -27,23 +25,43 @@ public class MiningBlock extends Observable {
         this.merkleRoot = merkleRoot;
     }
 
+    /**
+     * Try every nonce until one gives a hash below the target, or until the block is stopped.
+     */
     public void startMining() {
+        startMining(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Try the nonces from first to last until one gives a hash below the target, or until the block is stopped.
+     *
+     * Only the nonce changes between attempts, and it is the last field of the header, so the HeaderHasher hashes the
+     * rest of the header once and each attempt only finishes the last compression. Only the hash of the last nonce
+     * tried is turned into a BlockChainInt.
+     */
+    public void startMining(long first, long last) {
 
-        stopped = false;
+        final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+        Block.writeHeader(header, previousBlockHash, target, 0L, time, merkleRoot.getHash());
 
-        for (nonce = Long.MIN_VALUE; nonce < Long.MAX_VALUE && !stopped; nonce++) {
-            hash = computeHash();
-            if (hash.compareTo(target) < 0) {
+        final HeaderHasher hasher = new HeaderHasher(header.array(), target);
+        boolean solved = false;
+
+        for (nonce = first; ; nonce++) {
+            if (hasher.hash(nonce)) {
+                solved = true;
                 break;
             }
-        }
 
-        if (hash.compareTo(target) >= 0) {
-            nonce = Long.MAX_VALUE;
-            hash = computeHash();
+            if (stopped || nonce == last) {
+                break;
+            }
         }
 
-        if (hash.compareTo(target) < 0) {
+        hash = hasher.getHash();
+
+        if (solved) {
+            setChanged();
             notifyObservers();
         }
     }
@@ -52,25 +70,11 @@ public class MiningBlock extends Observable {
         return new Block(hash, previousBlockHash, target, nonce, time, merkleRoot);
     }
 
+    /**
+     * Stop mining, even if mining has not started yet, so that a block stopped by another thread just before it starts
+     * does not go on to try its whole range.
+     */
     public void stop() {
         stopped = true;
     }
-
-    private final BlockChainInt computeHash() {
-        try {
-            final MessageDigest hash = MessageDigest.getInstance("SHA-256");
-
-            hash.update(previousBlockHash.toByteArray());
-            hash.update(target.toByteArray());
-            hash.update(ByteBuffer.allocate(Long.BYTES).putLong(nonce));
-            hash.update(ByteBuffer.allocate(Integer.BYTES).putInt(time));
-            hash.update(merkleRoot.getHash().toByteArray());
-
-            return BlockChainInt.fromByteArray(hash.digest());
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-
-        return BlockChainInt.ZERO;
-    }
 }
@@ -1,20 +1,64 @@
 package identitychain.mining;
 
+import identitychain.blockchain.merkle.MerkleTree;
+
 import java.util.Random;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
 
 /**
  * Stores information shared among mining threads.
+ *
+ * The threads share one template, which is the merkle tree of a block's transactions with a coinbase for the current
+ * extra nonce. Each thread takes the next range of RANGE_SIZE nonces over the template, so no two threads try the same
+ * header. The extra nonce is only moved on, and a new template built, once every range of the current one has been
+ * handed out.
  */
 public class MiningCoordinator {
+    public static final long RANGE_SIZE = 1L << 32;
+
     private int extraNonce = Integer.MIN_VALUE;
-    private boolean finished = false;
+    private volatile boolean finished = false;
     private boolean overflowed = false;
     private boolean stopped = false;
 
+    private IntFunction<MerkleTree> templates;
+    private MerkleTree template;
+    private long nextNonce;
+
     private final Lock stopLock = new ReentrantLock();
 
+    /**
+     * A range of nonces to try over a template.
+     */
+    public static final class Range {
+        private final MerkleTree merkleRoot;
+        private final long first;
+        private final long last;
+
+        private Range(MerkleTree merkleRoot, long first, long last) {
+            this.merkleRoot = merkleRoot;
+            this.first = first;
+            this.last = last;
+        }
+
+        public MerkleTree getMerkleRoot() {
+            return merkleRoot;
+        }
+
+        public long getFirst() {
+            return first;
+        }
+
+        /**
+         * Get the last nonce of the range, which is also tried.
+         */
+        public long getLast() {
+            return last;
+        }
+    }
+
     public synchronized int getExtraNonce() {
         if (extraNonce == Integer.MAX_VALUE) {
             overflowed = true;
@@ -55,9 +99,44 @@ public class MiningCoordinator {
         }
     }
 
-    public void reset() {
+    /**
+     * Get the next range of nonces, building a template for the next extra nonce if the current one is used up.
+     *
+     * @return The range, or null if every extra nonce has been used.
+     */
+    public synchronized Range getNextRange() {
+        if (template == null) {
+            if (overflowed) {
+                return null;
+            }
+
+            template = templates.apply(getExtraNonce());
+            nextNonce = Long.MIN_VALUE;
+        }
+
+        final Range range = new Range(template, nextNonce, nextNonce + (RANGE_SIZE - 1));
+
+        if (range.last == Long.MAX_VALUE) {
+            template = null;
+        }
+        else {
+            nextNonce = range.last + 1;
+        }
+
+        return range;
+    }
+
+    /**
+     * Start handing out ranges for a new block.
+     *
+     * @param templates Builds the merkle tree of the block for an extra nonce.
+     */
+    public synchronized void reset(IntFunction<MerkleTree> templates) {
         extraNonce = Integer.MIN_VALUE;
         finished = false;
         overflowed = false;
+
+        this.templates = templates;
+        template = null;
     }
 }
@@ -100,8 +100,12 @@ public class BlockChainServer implements Observer {
             }
             else if (obj instanceof Transaction) {
                 final Transaction transaction = (Transaction) obj;
-                router.broadcastTransaction(transaction);
-                miner.acceptTransaction(transaction);
+
+                // The miner checks the signatures, so only valid transactions are relayed, and the SignatureCache
+                // keeps the result for when the transaction arrives again or is mined into a block.
+                if (miner.acceptTransaction(transaction)) {
+                    router.broadcastTransaction(transaction);
+                }
             }
             else if (obj instanceof IntroductionPacket) {
                 IntroductionPacket intro = (IntroductionPacket) obj;
@@ -3,6 +3,7 @@ package identitychain.network;
 import identitychain.blockchain.Block;
 import identitychain.blockchain.BlockChain;
 import identitychain.blockchain.BlockChainManager;
+import identitychain.blockchain.SignatureBatch;
 import identitychain.blockchain.utilities.BlockChainInt;
 import identitychain.network.packets.BlockRequestPacket;
 import identitychain.network.packets.InfoRequestPacket;
@@ -11,6 +12,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Stack;
@@ -49,10 +51,18 @@ public class BlockChainSynchronizer {
                 }
 
                 final Stack<Block> blockStack = reverseQueue(blocks);
-                boolean flag = false;
+                final List<Block> window = new ArrayList<>(blockStack.size());
 
                 while (!blockStack.isEmpty()) {
-                    if (!newChain.pushBlock(blockStack.pop())) {
+                    window.add(blockStack.pop());
+                }
+
+                // Check every signature of the window on the worker pool before any of its blocks is applied.
+                final int failed = SignatureBatch.verify(window);
+                boolean flag = failed >= 0;
+
+                for (int i = 0; i < (failed >= 0 ? failed : window.size()); i++) {
+                    if (!newChain.pushBlock(window.get(i))) {
                         flag = true;
                         break;
                     }
@@ -0,0 +1,227 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.merkle.MerkleTree;
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockChainTest {
+
+    private static PublicKey generateKey() throws NoSuchAlgorithmException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+
+        return generator.generateKeyPair().getPublic();
+    }
+
+    /**
+     * Mine a coinbase only block with the given time stamp at the maximum target.
+     */
+    static Block mine(BlockChain blockChain, PublicKey key, int time) {
+        final List<Transaction> transactions = new ArrayList<>();
+        transactions.add(new Coinbase(
+                blockChain.getSize(),
+                Collections.singletonList(new CurrencyTransactionOutput(key, BCConstants.MINING_REWARD)),
+                time
+        ));
+
+        final MerkleTree merkleRoot = MerkleTreeBuilder.buildMerkleTree(transactions);
+        final BlockChainInt previousHash = blockChain.getHeadHash();
+
+        for (long nonce = 0; ; nonce++) {
+            final ByteBuffer header = ByteBuffer.allocate(Block.HEADER_SIZE);
+            Block.writeHeader(header, previousHash, BlockChainInt.MAX_TARGET, nonce, time, merkleRoot.getHash());
+            header.flip();
+
+            final BlockChainInt hash = Block.hashHeader(header);
+
+            if (hash.compareTo(BlockChainInt.MAX_TARGET) < 0) {
+                return new Block(hash, previousHash, BlockChainInt.MAX_TARGET, nonce, time, merkleRoot);
+            }
+        }
+    }
+
+    static File createDirectory() throws IOException {
+        final File directory = Files.createTempDirectory("IDCTest").toFile();
+        directory.deleteOnExit();
+
+        return directory;
+    }
+
+    @Test
+    public void pushBlockRejectsEarlierTimeStamp() throws Exception {
+        final BlockChain blockChain = BlockChain.getFromDirectory(createDirectory());
+        final PublicKey key = generateKey();
+
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000)));
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000)));
+        assertFalse(blockChain.pushBlock(mine(blockChain, key, 999)));
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1001)));
+
+        assertEquals(3, blockChain.getSize());
+        assertTrue(blockChain.isValid());
+    }
+
+    @Test
+    public void reloadKeepsPushedBlocks() throws Exception {
+        final File directory = createDirectory();
+        final BlockChain blockChain = BlockChain.getFromDirectory(directory);
+        final PublicKey key = generateKey();
+
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000)));
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1001)));
+        blockChain.saveToFile();
+
+        final BlockChain reloaded = BlockChain.getFromDirectory(directory);
+
+        assertEquals(2, reloaded.getSize());
+        assertEquals(blockChain.getHeadHash(), reloaded.getHeadHash());
+    }
+
+    @Test
+    public void eventsAreDeliveredInOrder() throws Exception {
+        final BlockChain blockChain = BlockChain.getFromDirectory(createDirectory());
+        final PublicKey key = generateKey();
+        final List<Long> sizes = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch delivered = new CountDownLatch(5);
+
+        blockChain.addObserver((observable, event) -> {
+            sizes.add(((BlockChainEvent) event).getSize());
+            delivered.countDown();
+        });
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000 + i)));
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sizes);
+    }
+
+    @Test
+    public void reorganizationNoticeFollowsItsBlockEvents() throws Exception {
+        final BlockChainManager manager = BlockChainManager.getBlockChainManager(createDirectory());
+        final BlockChain blockChain = manager.getBlockChain();
+        final PublicKey key = generateKey();
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000 + i)));
+        }
+
+        final BlockChain fork = blockChain.forkBlockChain(blockChain.getBlock(0).getHash());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(fork.pushBlock(mine(fork, key, 2000 + i)));
+        }
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch delivered = new CountDownLatch(1);
+
+        blockChain.addObserver((observable, event) -> events.add(((BlockChainEvent) event).getType().name()));
+        manager.addObserver((observable, event) -> {
+            events.add("REORGANIZED");
+            delivered.countDown();
+        });
+
+        assertTrue(manager.replaceBlockChain(fork));
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("REVERTED", "PUSHED", "PUSHED", "PUSHED", "REORGANIZED"), events);
+    }
+
+    @Test
+    public void forkKeepsItsBlocksWhenTheForkedChainIsReorganized() throws Exception {
+        final BlockChain blockChain = BlockChain.getFromDirectory(createDirectory());
+        final PublicKey key = generateKey();
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000 + i)));
+        }
+
+        final List<BlockChainInt> shared = new ArrayList<>(blockChain.traceBlockchain().subList(1, 4));
+        final BlockChain fork = blockChain.forkBlockChain(shared.get(0));
+        final BlockChain branch = blockChain.forkBlockChain(shared.get(2));
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(branch.pushBlock(mine(branch, key, 2000 + i)));
+        }
+
+        final List<BlockChainInt> branchHashes = new ArrayList<>(branch.traceBlockchain().subList(0, 4));
+        Collections.reverse(branchHashes);
+
+        assertEquals(4, blockChain.reorganize(shared.get(2), branchHashes));
+        assertEquals(branch.getHeadHash(), blockChain.getHeadHash());
+
+        assertEquals(shared, fork.traceBlockchain());
+        assertEquals(shared.get(1), fork.getBlock(1).getHash());
+    }
+
+    @Test
+    public void failedReorganizationRestoresTheHeadWithoutInvalidatingUnreadBlocks() throws Exception {
+        final File directory = createDirectory();
+        final BlockChain blockChain = BlockChain.getFromDirectory(directory);
+        final PublicKey key = generateKey();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000 + i)));
+        }
+
+        final BlockChainInt head = blockChain.getHeadHash();
+        final BlockChainInt ancestor = blockChain.getBlock(0).getHash();
+        final BlockChain branch = blockChain.forkBlockChain(ancestor);
+
+        assertTrue(branch.pushBlock(mine(branch, key, 2000)));
+
+        // The second block of the branch was never stored, so it cannot be read.
+        final BlockChainInt missing = BlockChainInt.fromString("1234", 16);
+
+        assertEquals(1, blockChain.reorganize(ancestor, Arrays.asList(branch.getHeadHash(), missing)));
+        assertEquals(head, blockChain.getHeadHash());
+        assertEquals(3, blockChain.getSize());
+        assertEquals(3 * BCConstants.MINING_REWARD, blockChain.getBalance(key));
+        assertFalse(BlockTree.getBlockTree(directory).get(branch.getHeadHash()).isInvalid());
+    }
+
+    @Test
+    public void forkBalancesAreKeptApartFromTheForkedChain() throws Exception {
+        final BlockChain blockChain = BlockChain.getFromDirectory(createDirectory());
+        final PublicKey key = generateKey();
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(blockChain.pushBlock(mine(blockChain, key, 1000 + i)));
+        }
+
+        final BlockChain fork = blockChain.forkBlockChain(blockChain.getBlock(1).getHash());
+
+        assertEquals(2 * BCConstants.MINING_REWARD, fork.getBalance(key));
+
+        assertTrue(blockChain.pushBlock(mine(blockChain, key, 1003)));
+        assertTrue(fork.pushBlock(mine(fork, key, 2000)));
+        assertTrue(fork.pushBlock(mine(fork, key, 2001)));
+        assertTrue(fork.pushBlock(mine(fork, key, 2002)));
+
+        assertEquals(4 * BCConstants.MINING_REWARD, blockChain.getBalance(key));
+        assertEquals(5 * BCConstants.MINING_REWARD, fork.getBalance(key));
+    }
+}
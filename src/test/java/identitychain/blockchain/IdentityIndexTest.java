@@ -0,0 +1,102 @@
+package identitychain.blockchain;
+
+import identitychain.blockchain.merkle.MerkleTreeBuilder;
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.transaction.CurrencyTransactionOutput;
+import identitychain.blockchain.transaction.IdentityEntry;
+import identitychain.blockchain.transaction.Transaction;
+import identitychain.blockchain.utilities.BCConstants;
+import identitychain.blockchain.utilities.BlockChainInt;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdentityIndexTest {
+
+    /**
+     * Build a block holding the entries, which is not mined, since the index does not check blocks.
+     */
+    private static Block block(int height, PublicKey miner, IdentityEntry... entries) {
+        final List<Transaction> transactions = new ArrayList<>();
+        transactions.add(new Coinbase(
+                height,
+                Collections.singletonList(new CurrencyTransactionOutput(miner, BCConstants.MINING_REWARD)),
+                height
+        ));
+        transactions.addAll(Arrays.asList(entries));
+
+        return new Block(
+                BlockChainInt.fromString(Integer.toString(height + 1), 10),
+                BlockChainInt.fromString(Integer.toString(height), 10),
+                BlockChainInt.MAX_TARGET,
+                0,
+                1000 + height,
+                MerkleTreeBuilder.buildMerkleTree(transactions)
+        );
+    }
+
+    private static IdentityEntry entry(KeyPair keys, String name) {
+        final IdentityEntry entry = new IdentityEntry(keys.getPublic(), name, BlockChainInt.ONE);
+        entry.sign(keys.getPrivate());
+
+        return entry;
+    }
+
+    @Test
+    public void overlayAndParentDoNotSeeEachOthersChanges() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+
+        final KeyPair keys1 = generator.generateKeyPair();
+        final KeyPair keys2 = generator.generateKeyPair();
+        final KeyPair keys3 = generator.generateKeyPair();
+        final PublicKey key1 = keys1.getPublic();
+        final PublicKey key2 = keys2.getPublic();
+        final PublicKey key3 = keys3.getPublic();
+
+        final IdentityIndex index = new IdentityIndex();
+        final Block first = block(0, key1, entry(keys1, "alice"));
+        index.apply(first);
+
+        final IdentityIndex overlay = index.overlay();
+
+        final Block parentBlock = block(1, key1, entry(keys2, "alice"), entry(keys3, "bob"));
+        index.apply(parentBlock);
+
+        final Block overlayBlock = block(1, key1, entry(keys2, "carol"));
+        overlay.apply(overlayBlock);
+
+        assertEquals(2, index.getAllWithName("alice").size());
+        assertEquals(1, overlay.getAllWithName("alice").size());
+        assertEquals("alice", index.get(key2).getName());
+        assertEquals("carol", overlay.get(key2).getName());
+        assertNull(overlay.get(key3));
+        assertEquals(Arrays.asList("alice", "bob"), index.findNamesWithPrefix("", 10));
+        assertEquals(Arrays.asList("alice", "carol"), overlay.findNamesWithPrefix("", 10));
+        assertEquals(Collections.singletonList("alice"), overlay.findNamesWithPrefix("", 1));
+        assertEquals("carol", overlay.findSimilarNames("carl", 1, 10).get(0).getName());
+
+        index.revert(UndoRecord.of(parentBlock));
+        index.revert(UndoRecord.of(first));
+
+        assertEquals(0, index.getAllWithName("alice").size());
+        assertEquals("alice", overlay.get(key1).getName());
+        assertEquals("carol", overlay.get(key2).getName());
+
+        overlay.revert(UndoRecord.of(overlayBlock));
+
+        assertNull(overlay.get(key2));
+        assertEquals(Collections.singletonList("alice"), overlay.findNamesWithPrefix("", 10));
+        assertEquals(1, overlay.size());
+        assertEquals(0, index.size());
+    }
+}
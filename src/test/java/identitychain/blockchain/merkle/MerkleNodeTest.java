@@ -0,0 +1,41 @@
+package identitychain.blockchain.merkle;
+
+import identitychain.blockchain.transaction.Coinbase;
+import identitychain.blockchain.utilities.BlockChainInt;
+import identitychain.blockchain.utilities.Hashing;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class MerkleNodeTest {
+
+    private static Coinbase coinbase(int extraNonce) {
+        return new Coinbase(extraNonce, Collections.emptyList(), extraNonce);
+    }
+
+    /**
+     * A leaf computes its hash with the same per thread digest as the node, so the node must not depend on whether
+     * its leaves were hashed before it was built.
+     */
+    @Test
+    public void hashDoesNotDependOnCachedLeafHashes() {
+        final Coinbase left = coinbase(1);
+        final Coinbase right = coinbase(2);
+        final BlockChainInt leftHash = left.getHash();
+        final BlockChainInt rightHash = right.getHash();
+
+        final MerkleNode cached = new MerkleNode(left, right);
+        final MerkleNode fresh = new MerkleNode(coinbase(1), coinbase(2));
+
+        final MessageDigest digest = Hashing.getDigest();
+        Hashing.update(digest, leftHash);
+        Hashing.update(digest, rightHash);
+        final BlockChainInt expected = Hashing.digest(digest);
+
+        assertEquals(expected, cached.getHash());
+        assertEquals(expected, fresh.getHash());
+    }
+}
@@ -0,0 +1,100 @@
+package identitychain.blockchain.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UndoStoreTest {
+
+    private static File createDirectory() throws IOException {
+        final File directory = Files.createTempDirectory("IDCTest").toFile();
+        directory.deleteOnExit();
+
+        return directory;
+    }
+
+    private static byte[] record(int slot) {
+        final byte[] record = new byte[100];
+
+        for (int i = 0; i < record.length; i++) {
+            record[i] = (byte) (slot + i);
+        }
+
+        return record;
+    }
+
+    private static void assertRecord(UndoStore store, int slot) throws IOException {
+        assertEquals(new String(record(slot), "ISO-8859-1"), new String(store.get(slot), "ISO-8859-1"));
+    }
+
+    @Test
+    public void recordsAppendedAfterTheLastForceAreFoundWhenReopened() throws Exception {
+        final File directory = createDirectory();
+        final UndoStore store = UndoStore.open(directory);
+
+        store.put(0, record(0));
+        store.put(1, record(1));
+        store.force();
+        store.put(2, record(2));
+
+        // A record that was only partly written when the store was closed.
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "IDCUndo.dat"), "rw")) {
+            file.seek(file.length());
+            file.write(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        }
+
+        final UndoStore reopened = UndoStore.open(directory);
+
+        assertRecord(reopened, 0);
+        assertRecord(reopened, 1);
+        assertRecord(reopened, 2);
+        assertFalse(reopened.contains(3));
+
+        reopened.put(3, record(3));
+        assertRecord(reopened, 3);
+    }
+
+    @Test
+    public void recordThatFailsItsChecksumIsCutOff() throws Exception {
+        final File directory = createDirectory();
+        final UndoStore store = UndoStore.open(directory);
+
+        for (int slot = 0; slot < 3; slot++) {
+            store.put(slot, record(slot));
+        }
+
+        store.force();
+
+        // Flip a byte in the middle of the second record.
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "IDCUndo.dat"), "rw")) {
+            final long position = file.length() / 2;
+
+            file.seek(position);
+            final int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+
+        assertNull(store.get(1));
+        assertRecord(store, 0);
+        assertFalse(store.contains(1));
+        assertFalse(store.contains(2));
+
+        store.put(1, record(1));
+        store.put(2, record(2));
+
+        final UndoStore reopened = UndoStore.open(directory);
+
+        assertTrue(reopened.contains(0));
+        assertRecord(reopened, 1);
+        assertRecord(reopened, 2);
+    }
+}